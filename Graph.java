@@ -1,7 +1,13 @@
 
 
 import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 
 /**
@@ -26,6 +32,25 @@ class GraphException extends RuntimeException
     }
 }
 
+// Thrown by negative when a negative-cost cycle is reachable; carries
+// the names of the cycle's vertices in edge order, the first
+// repeated at the end.
+class NegativeCycleException extends GraphException
+{
+	private static final long serialVersionUID = 0L;
+
+    private final List<String> cycle;
+
+    public NegativeCycleException( List<String> cycle )
+    {
+        super( "Negative cycle detected: " + cycle );
+        this.cycle = Collections.unmodifiableList( cycle );
+    }
+
+    public List<String> cycle( )
+      { return cycle; }
+}
+
 // Represents an edge in the graph.
 class Edge
 {
@@ -40,349 +65,4785 @@ class Edge
 }
 
 // Represents an entry in the priority queue for Dijkstra's algorithm.
+// Equal costs are ordered by tie key, then by vertex id.
 class Path implements Comparable<Path>
 {
     public Vertex     dest;   // w
     public double     cost;   // d(w)
+    public long       tie;    // Tie key of the path to w
     
-    public Path( Vertex d, double c )
+    public Path( Vertex d, double c, long t )
     {
         dest = d;
         cost = c;
+        tie = t;
     }
     
     public int compareTo( Path rhs )
     {
         double otherCost = rhs.cost;
         
-        return cost < otherCost ? -1 : cost > otherCost ? 1 : 0;
+        if( cost != otherCost )
+            return cost < otherCost ? -1 : 1;
+        if( tie != rhs.tie )
+            return tie < rhs.tie ? -1 : 1;
+        return Integer.compare( dest.id, rhs.dest.id );
     }
 }
 
-// Represents a vertex in the graph.
+// Represents a vertex in the graph.  Costs and previous vertices
+// found by the shortest path algorithms are kept by Graph in arrays
+// indexed by id, not in the vertex.
 class Vertex
 {
     public String     name;   // Vertex name
-    public List<Edge> adj;    // Adjacent vertices
-    public double     dist;   // Cost
-    public Vertex     prev;   // Previous vertex on shortest path
-    public int        scratch;// Extra variable used in algorithm
-    public int 		  edgeCount;
-
-    public Vertex( String nm )
-      { name = nm; adj = new LinkedList<Edge>( ); reset( ); }
-
-    public void reset( )
-      { dist = Graph.INFINITY; prev = null; pos = null; scratch = 0; edgeCount = 0;}    
-      
-    public PairingHeap.Position<Path> pos;  // Used for dijkstra2 (Chapter 23)
-}
+    public int        id;     // Index in Graph's vertex list
+    public List<Edge> adj;    // Adjacent vertices, null while compacted
 
-// Graph class: evaluate shortest paths.
-//
-// CONSTRUCTION: with no parameters.
-//
-// ******************PUBLIC OPERATIONS**********************
-// void addEdge( String v, String w, double cvw )
-//                              --> Add additional edge
-// void printPath( String w )   --> Print path after alg is run
-// void unweighted( String s )  --> Single-source unweighted
-// void dijkstra( String s )    --> Single-source weighted
-// void negative( String s )    --> Single-source negative weighted
-// void acyclic( String s )     --> Single-source acyclic
-// ******************ERRORS*********************************
-// Some error checking is performed to make sure graph is ok,
-// and to make sure graph satisfies properties needed by each
-// algorithm.  Exceptions are thrown if errors are detected.
+    public Vertex( String nm, int i, int degree )
+      { name = nm; id = i; adj = new ArrayList<Edge>( degree ); }
+}
 
-public class Graph
+// Maps vertex names to vertices.  Ids are kept in an open-addressing
+// int table, so each vertex costs one or two table slots rather than
+// a HashMap entry object.
+class VertexTable
 {
-    public static final double INFINITY = Double.MAX_VALUE;
-    private Map<String,Vertex> vertexMap = new HashMap<String,Vertex>( );
+    private List<Vertex> vertices;
+    private int [ ] slots;    // id + 1 of the vertex in each slot, 0 if empty
+    private int size;
+
+    public VertexTable( List<Vertex> vs, int expected )
+    {
+        vertices = vs;
+        int capacity = 16;
+        while( capacity < expected * 2 )
+            capacity <<= 1;
+        slots = new int[ capacity ];
+    }
+
+    public int size( )
+      { return size; }
+
+    public Vertex get( String name )
+    {
+        int mask = slots.length - 1;
+        for( int i = hash( name ) & mask; slots[ i ] != 0; i = ( i + 1 ) & mask )
+        {
+            Vertex v = vertices.get( slots[ i ] - 1 );
+            if( v.name.equals( name ) )
+                return v;
+        }
+        return null;
+    }
 
     /**
-     * Add a new edge to the graph.
+     * Add v, whose name must not be present yet.
      */
-    public void addEdge( String sourceName, String destName, double cost )
+    public void put( Vertex v )
     {
-        Vertex v = getVertex( sourceName );
-        Vertex w = getVertex( destName );
-        v.adj.add( new Edge( w, cost ) );
+        if( ( size + 1 ) * 2 > slots.length )
+        {
+            int [ ] old = slots;
+            slots = new int[ old.length * 2 ];
+            for( int id : old )
+                if( id != 0 )
+                    insert( id );
+        }
+        insert( v.id + 1 );
+        size++;
+    }
+
+    private void insert( int slot )
+    {
+        int mask = slots.length - 1;
+        int i = hash( vertices.get( slot - 1 ).name ) & mask;
+        while( slots[ i ] != 0 )
+            i = ( i + 1 ) & mask;
+        slots[ i ] = slot;
+    }
+
+    private static int hash( String name )
+    {
+        int h = name.hashCode( );
+        return h ^ ( h >>> 16 );
+    }
+}
+
+// Receives the edges produced by a graph generator, so the same
+// generator can either write a graph file or build a Graph directly.
+interface EdgeSink
+{
+    void edge( String source, String dest, double cost );
+}
+
+// A piece of work over the indices from .. to-1, which
+// Graph.parallelFor may split across threads.
+interface RangeTask
+{
+    void run( int from, int to );
+}
+
+// Ring-buffer queue of vertex ids, usable as a deque through
+// addFirst.  Grows by doubling, so once it has reached the graph
+// size enqueues no longer allocate.
+class IntQueue
+{
+    private int [ ] items;
+    private int head;
+    private int size;
+
+    public IntQueue( int capacity )
+      { items = new int[ Math.max( capacity, 1 ) ]; }
+
+    public boolean isEmpty( )
+      { return size == 0; }
+
+    public void clear( )
+      { head = size = 0; }
+
+    public int size( )
+      { return size; }
+
+    public int peek( )
+      { return items[ head ]; }
+
+    public void add( int x )
+    {
+        grow( );
+        items[ ( head + size++ ) % items.length ] = x;
+    }
+
+    public void addFirst( int x )
+    {
+        grow( );
+        head = ( head == 0 ? items.length : head ) - 1;
+        items[ head ] = x;
+        size++;
+    }
+
+    private void grow( )
+    {
+        if( size == items.length )
+        {
+            int [ ] old = items;
+            items = new int[ old.length * 2 ];
+            for( int i = 0; i < size; i++ )
+                items[ i ] = old[ ( head + i ) % old.length ];
+            head = 0;
+        }
+    }
+
+    public int remove( )
+    {
+        int x = items[ head ];
+        if( ++head == items.length )
+            head = 0;
+        size--;
+        return x;
+    }
+}
+
+// Priority queue of vertex ids ordered by a shared key array,
+// as used by dijkstra.  decreaseKey inserts x or records that
+// key[x] was lowered; deleteMin may return an id that has already
+// been removed, which callers skip.
+interface VertexQueue
+{
+    boolean isEmpty( );
+    void clear( );
+    void decreaseKey( int x );
+    int deleteMin( );
+}
+
+// Binary min-heap of vertex ids ordered by a shared key array, equal
+// keys by a shared tie array, then by id.  Each id's heap index is
+// tracked, so a key or tie that has been lowered is fixed in place
+// instead of adding a second entry.
+class IntHeap implements VertexQueue
+{
+    private int [ ] heap;      // heap[1..size] hold ids
+    private int [ ] pos;       // index of each id in heap, 0 if absent
+    private double [ ] key;
+    private long [ ] tie;
+    private int size;
+
+    public IntHeap( double [ ] key, long [ ] tie )
+    {
+        this.key = key;
+        this.tie = tie;
+        heap = new int[ key.length + 1 ];
+        pos = new int[ key.length ];
+    }
+
+    public boolean isEmpty( )
+      { return size == 0; }
+
+    public void clear( )
+    {
+        for( int i = 1; i <= size; i++ )
+            pos[ heap[ i ] ] = 0;
+        size = 0;
     }
 
+    public boolean contains( int x )
+      { return pos[ x ] != 0; }
+
     /**
-     * Driver routine to handle unreachables and print total cost.
-     * It calls recursive routine to print shortest path to
-     * destNode after a shortest path algorithm has run.
-     * 
-     * This method has been edited from its original version for the 
-     * purpose of implementing the Assignment's goals.
+     * Insert x, or restore heap order after key[x] or tie[x] was
+     * lowered.
      */
-    public void printPath( String destName, PrintWriter outfile )
+    public void decreaseKey( int x )
     {
-        Vertex w = vertexMap.get( destName );
-        if( w == null )
-            throw new NoSuchElementException( "Destination vertex not found" );
-        else if( w.dist == INFINITY )
-            outfile.println( destName + " is unreachable" );
+        int hole = pos[ x ];
+        if( hole == 0 )
+            hole = ++size;
+
+        for( ; hole > 1 && less( x, heap[ hole / 2 ] ); hole /= 2 )
+        {
+            heap[ hole ] = heap[ hole / 2 ];
+            pos[ heap[ hole ] ] = hole;
+        }
+        heap[ hole ] = x;
+        pos[ x ] = hole;
+    }
+
+    public int deleteMin( )
+    {
+        int min = heap[ 1 ];
+        pos[ min ] = 0;
+        int last = heap[ size-- ];
+        if( size > 0 )
+            siftDown( 1, last );
+        return min;
+    }
+
+    private void siftDown( int hole, int x )
+    {
+        for( int child; ( child = hole * 2 ) <= size; hole = child )
+        {
+            if( child != size && less( heap[ child + 1 ], heap[ child ] ) )
+                child++;
+            if( !less( heap[ child ], x ) )
+                break;
+            heap[ hole ] = heap[ child ];
+            pos[ heap[ hole ] ] = hole;
+        }
+        heap[ hole ] = x;
+        pos[ x ] = hole;
+    }
+
+    private boolean less( int a, int b )
+    {
+        return key[ a ] < key[ b ]
+            || key[ a ] == key[ b ] && ( tie[ a ] < tie[ b ] || tie[ a ] == tie[ b ] && a < b );
+    }
+}
+
+// Dial's bucket queue for whole-number keys when no edge costs more
+// than maxCost.  Every key in the queue lies within maxCost of the
+// last minimum, so maxCost + 1 circular buckets suffice and each
+// operation is O(1) plus the scan to the next non-empty bucket.  The
+// ids whose key equals the last minimum are moved into a heap that
+// orders them by tie, then id.
+// After clear the first keys must lie in 0 .. maxCost.
+class DialQueue implements VertexQueue
+{
+    private double [ ] key;
+    private int [ ] bucketHead;   // first id in each bucket, -1 if empty
+    private int [ ] next;         // doubly linked bucket lists
+    private int [ ] prev;
+    private int [ ] bucket;       // bucket of each id, -1 if absent
+    private IntHeap current;      // ids whose key is the last minimum
+    private int size;             // ids in the bucket lists
+    private int cursor;           // bucket of the last minimum
+
+    public DialQueue( double [ ] key, long [ ] tie, int maxCost )
+    {
+        this.key = key;
+        bucketHead = new int[ maxCost + 1 ];
+        next = new int[ key.length ];
+        prev = new int[ key.length ];
+        bucket = new int[ key.length ];
+        current = new IntHeap( key, tie );
+        Arrays.fill( bucketHead, -1 );
+        Arrays.fill( bucket, -1 );
+    }
+
+    public int maxCost( )
+      { return bucketHead.length - 1; }
+
+    public boolean isEmpty( )
+      { return size == 0 && current.isEmpty( ); }
+
+    public void clear( )
+    {
+        for( int b = 0; size > 0; b++ )
+            while( bucketHead[ b ] != -1 )
+                unlink( bucketHead[ b ] );
+        current.clear( );
+        cursor = 0;
+    }
+
+    public void decreaseKey( int x )
+    {
+        if( current.contains( x ) )
+        {
+            current.decreaseKey( x );
+            return;
+        }
+        if( bucket[ x ] != -1 )
+            unlink( x );
+
+        int b = (int) ( (long) key[ x ] % bucketHead.length );
+        if( b == cursor )  // key is the last minimum
+        {
+            current.decreaseKey( x );
+            return;
+        }
+        size++;
+        bucket[ x ] = b;
+        prev[ x ] = -1;
+        next[ x ] = bucketHead[ b ];
+        if( next[ x ] != -1 )
+            prev[ next[ x ] ] = x;
+        bucketHead[ b ] = x;
+    }
+
+    public int deleteMin( )
+    {
+        if( current.isEmpty( ) )
+        {
+            while( bucketHead[ cursor ] == -1 )
+                if( ++cursor == bucketHead.length )
+                    cursor = 0;
+
+            int x = bucketHead[ cursor ];
+            unlink( x );
+            if( bucketHead[ cursor ] == -1 )
+                return x;
+            current.decreaseKey( x );
+            while( bucketHead[ cursor ] != -1 )
+            {
+                x = bucketHead[ cursor ];
+                unlink( x );
+                current.decreaseKey( x );
+            }
+        }
+        return current.deleteMin( );
+    }
+
+    private void unlink( int x )
+    {
+        int b = bucket[ x ];
+        if( prev[ x ] != -1 )
+            next[ prev[ x ] ] = next[ x ];
         else
+            bucketHead[ b ] = next[ x ];
+        if( next[ x ] != -1 )
+            prev[ next[ x ] ] = prev[ x ];
+        bucket[ x ] = -1;
+        size--;
+    }
+}
+
+// Radix heap for whole-number keys that never fall below the last
+// minimum removed (0 after clear), as holds in dijkstra.  An entry lives in the
+// bucket numbered by the highest bit in which its key differs from
+// that minimum.  Bucket 0, the keys equal to the minimum, is a heap
+// that orders them by tie, then id.  Lowering a key adds a second
+// entry; the stale one is returned later and skipped by the caller.
+class RadixHeap implements VertexQueue
+{
+    private static final int BUCKETS = 65;
+
+    private double [ ] key;
+    private long [ ] [ ] keys = new long[ BUCKETS ][ ];
+    private int [ ] [ ] ids = new int[ BUCKETS ][ ];
+    private int [ ] sizes = new int[ BUCKETS ];
+    private IntHeap current;      // bucket 0
+    private int size;             // entries in buckets 1 and up
+    private long last;            // last minimum removed
+
+    public RadixHeap( double [ ] key, long [ ] tie )
+    {
+        this.key = key;
+        current = new IntHeap( key, tie );
+        for( int b = 1; b < BUCKETS; b++ )
         {
-            outfile.print( "(Cost is: " + w.dist + ") " );
-            printPath( w, outfile );
-            outfile.println( );
+            keys[ b ] = new long[ 4 ];
+            ids[ b ] = new int[ 4 ];
+        }
+    }
+
+    public boolean isEmpty( )
+      { return size == 0 && current.isEmpty( ); }
+
+    public void clear( )
+    {
+        Arrays.fill( sizes, 0 );
+        current.clear( );
+        size = 0;
+        last = 0;
+    }
+
+    public void decreaseKey( int x )
+    {
+        add( (long) key[ x ], x );
+    }
+
+    public int deleteMin( )
+    {
+        if( current.isEmpty( ) )
+        {
+            int b = 1;
+            while( sizes[ b ] == 0 )
+                b++;
+
+              // The new minimum is the smallest key in bucket b;
+              // every entry there moves to a lower bucket.
+            long [ ] bk = keys[ b ];
+            int [ ] bi = ids[ b ];
+            int n = sizes[ b ];
+            long min = bk[ 0 ];
+            for( int i = 1; i < n; i++ )
+                min = Math.min( min, bk[ i ] );
+            last = min;
+            sizes[ b ] = 0;
+            size -= n;
+            for( int i = 0; i < n; i++ )
+                add( bk[ i ], bi[ i ] );
+        }
+        return current.deleteMin( );
+    }
+
+    /**
+     * File an entry for x with key k.  Entries at the minimum go to
+     * the heap, which holds each id once.
+     */
+    private void add( long k, int x )
+    {
+        if( k == last )
+        {
+            current.decreaseKey( x );
+            return;
+        }
+        int b = 64 - Long.numberOfLeadingZeros( k ^ last );
+        int n = sizes[ b ];
+        if( n == ids[ b ].length )
+        {
+            keys[ b ] = Arrays.copyOf( keys[ b ], n * 2 );
+            ids[ b ] = Arrays.copyOf( ids[ b ], n * 2 );
+        }
+        keys[ b ][ n ] = k;
+        ids[ b ][ n ] = x;
+        sizes[ b ] = n + 1;
+        size++;
+    }
+}
+
+// The priority queues dijkstra can run on.  AUTO picks one from the
+// edge costs: Dial's buckets for small whole-number costs, a radix
+// heap for larger whole-number costs, and the binary heap otherwise.
+enum DijkstraEngine
+{
+    AUTO, BINARY_HEAP, DIAL, RADIX_HEAP
+}
+
+// The label-correcting strategies negative can use.  FIFO is plain
+// Bellman-Ford with a queue; SLF puts a vertex at the front when its
+// label is below the front's; LLL moves front vertices whose label is
+// above the queue's average to the back; GOLDBERG_RADZIK scans in
+// passes, each in topological order of the improving edges.
+enum NegativeStrategy
+{
+    FIFO, SLF, LLL, SLF_LLL, GOLDBERG_RADZIK
+}
+
+// How dijkstra chooses among paths of equal cost.  FEWEST_HOPS keeps
+// the path with fewer edges, then the lower predecessor id; LOWEST_ID
+// keeps the lower predecessor id, except over zero-cost edges, where
+// it falls back to fewer edges so that the prev links stay acyclic.
+enum TieBreak
+{
+    FEWEST_HOPS, LOWEST_ID
+}
+
+// Orders Graph.reorder can renumber the vertices in.  INSERTION is
+// the order the vertices were added in; BFS is breadth-first order
+// over edges taken in either direction; RCM is reverse Cuthill-McKee,
+// breadth-first from a lowest-degree vertex with neighbors taken by
+// increasing degree, then reversed; DEGREE puts the vertices with
+// most edges first.
+enum VertexOrder
+{
+    INSERTION, BFS, RCM, DEGREE
+}
+
+// Counters gathered by one shortest-path query.  Each algorithm
+// fills in the ones that apply to it and leaves the rest at zero.
+class QueryStats
+{
+    public String algorithm;
+    public int    source;       // Start vertex id, -1 for several sources
+    public long   nanos;        // Wall time of the query
+    public long   settled;      // Vertices whose distance became final
+    public long   relaxed;      // Edges examined
+    public long   pushes;       // Queue inserts and decrease-keys
+    public long   pops;         // Queue removals
+    public long   stalePops;    // Removals skipped as already settled
+    public long   cycleChecks;  // Negative-cycle tests made
+
+    /**
+     * Zero every counter.
+     */
+    public void clear( )
+    {
+        algorithm = null;
+        source = -1;
+        nanos = settled = relaxed = pushes = pops = stalePops = cycleChecks = 0;
+    }
+
+    /**
+     * Add the counters of q to this one.
+     */
+    public void add( QueryStats q )
+    {
+        nanos += q.nanos;
+        settled += q.settled;
+        relaxed += q.relaxed;
+        pushes += q.pushes;
+        pops += q.pops;
+        stalePops += q.stalePops;
+        cycleChecks += q.cycleChecks;
+    }
+
+    public String toString( )
+    {
+        return algorithm + ": " + nanos + " ns, " + settled + " settled, "
+            + relaxed + " relaxed, " + pushes + " pushes, " + pops + " pops, "
+            + stalePops + " stale, " + cycleChecks + " cycle checks";
+    }
+}
+
+// Receiver of per-query counters, set with Graph.setMetrics.  The
+// QueryStats passed in is reused by the next query, so an
+// implementation copies what it keeps.
+interface GraphMetrics
+{
+    GraphMetrics NONE = new GraphMetrics( )
+      { public void queryCompleted( QueryStats q ) { } };
+
+    void queryCompleted( QueryStats q );
+}
+
+// GraphMetrics that keeps running totals and a wall-time histogram for
+// each algorithm.  Bucket k of the histogram counts queries that took
+// from 2^k up to 2^(k+1) nanoseconds.
+class CountingMetrics implements GraphMetrics
+{
+    private final Map<String,QueryStats> totals = new TreeMap<String,QueryStats>( );
+    private final Map<String,long[]> histograms = new TreeMap<String,long[]>( );
+    private final Map<String,Long> queries = new TreeMap<String,Long>( );
+
+    public synchronized void queryCompleted( QueryStats q )
+    {
+        QueryStats t = totals.get( q.algorithm );
+        if( t == null )
+        {
+            t = new QueryStats( );
+            t.clear( );
+            t.algorithm = q.algorithm;
+            totals.put( q.algorithm, t );
+            histograms.put( q.algorithm, new long[ 64 ] );
+            queries.put( q.algorithm, 0L );
+        }
+        t.add( q );
+        histograms.get( q.algorithm )[ 63 - Long.numberOfLeadingZeros( Math.max( q.nanos, 1 ) ) ]++;
+        queries.put( q.algorithm, queries.get( q.algorithm ) + 1 );
+    }
+
+    /**
+     * Return the number of queries recorded for algorithm.
+     */
+    public synchronized long queries( String algorithm )
+    {
+        Long c = queries.get( algorithm );
+        return c == null ? 0 : c;
+    }
+
+    /**
+     * Return a copy of the summed counters for algorithm, or null if
+     * it has not been run.
+     */
+    public synchronized QueryStats totals( String algorithm )
+    {
+        QueryStats t = totals.get( algorithm );
+        if( t == null )
+            return null;
+        QueryStats copy = new QueryStats( );
+        copy.clear( );
+        copy.algorithm = algorithm;
+        copy.add( t );
+        return copy;
+    }
+
+    /**
+     * Return a copy of the wall-time histogram for algorithm.
+     */
+    public synchronized long[] timeHistogram( String algorithm )
+    {
+        long[] h = histograms.get( algorithm );
+        return h == null ? new long[ 64 ] : h.clone( );
+    }
+
+    public synchronized void reset( )
+    {
+        totals.clear( );
+        histograms.clear( );
+        queries.clear( );
+    }
+
+    public synchronized String toString( )
+    {
+        StringBuilder sb = new StringBuilder( );
+        for( QueryStats t : totals.values( ) )
+            sb.append( queries.get( t.algorithm ) ).append( " x " ).append( t ).append( '\n' );
+        return sb.toString( );
+    }
+}
+
+// Flight Recorder event committed for every query while recording is
+// on, so slow queries show up in production profiles.  TYPE tells
+// whether a recording wants the event, so none is created otherwise.
+@jdk.jfr.Name( "graph.ShortestPathQuery" )
+@jdk.jfr.Label( "Shortest-Path Query" )
+@jdk.jfr.Category( "Graph" )
+class QueryEvent extends jdk.jfr.Event
+{
+    @jdk.jfr.Label( "Algorithm" )        String algorithm;
+    @jdk.jfr.Label( "Source" )           String source;
+    @jdk.jfr.Label( "Query Time" ) @jdk.jfr.Timespan long queryTime;
+    @jdk.jfr.Label( "Vertices Settled" ) long settled;
+    @jdk.jfr.Label( "Edges Relaxed" )    long relaxed;
+    @jdk.jfr.Label( "Queue Pushes" )     long pushes;
+    @jdk.jfr.Label( "Queue Pops" )       long pops;
+    @jdk.jfr.Label( "Stale Pops" )       long stalePops;
+    @jdk.jfr.Label( "Cycle Checks" )     long cycleChecks;
+
+    static final jdk.jfr.EventType TYPE = jdk.jfr.EventType.getEventType( QueryEvent.class );
+}
+
+// Per-query working storage shared by the shortest-path algorithms,
+// indexed by vertex id.  It is reused from query to query and only
+// reallocated when the graph has grown.
+class SearchState
+{
+    public double [ ] dist;     // Cost
+    public int [ ]    prev;     // Previous vertex id, -1 if none
+    public int [ ]    hops;     // Edges on the current path
+    public long [ ]   tie;      // Tie key of the current path, valid where dist is finite
+    public double [ ] cand;     // Cost through the chosen predecessor under a tie epsilon, created when first needed
+    public long [ ]   candTie;  // Tie key through the chosen predecessor
+    public int [ ]    scratch;  // Extra variable used in algorithm
+    public int [ ]    origin;   // Source a vertex was reached from
+    public boolean [ ] target;  // Vertices a search may stop at
+    public IntQueue   queue;
+    public IntHeap    heap;
+    public DialQueue  dial;     // Created when first needed
+    public RadixHeap  radix;    // Created when first needed
+    public int [ ]    mark;     // Goldberg-Radzik pass marks, created when first needed
+    public int [ ]    cursor;   // Goldberg-Radzik edge cursors, then positions in order
+    public int [ ]    stack;    // Goldberg-Radzik depth-first stack
+    public int [ ]    order;    // Goldberg-Radzik postorder of one pass, or dijkstra's settle order
+    public double [ ] cost2;    // Second cost per vertex, created when first needed
+    public int [ ]    hub;      // Improving edges of one hub vertex, created when first needed
+    public final QueryStats stats = new QueryStats( );
+    public long       started;  // System.nanoTime at the start of the query
+
+    public SearchState( int n )
+    {
+        dist = new double[ n ];
+        prev = new int[ n ];
+        hops = new int[ n ];
+        tie = new long[ n ];
+        scratch = new int[ n ];
+        origin = new int[ n ];
+        target = new boolean[ n ];
+        queue = new IntQueue( n );
+        heap = new IntHeap( dist, tie );
+    }
+
+    public int capacity( )
+      { return dist.length; }
+
+    /**
+     * Reset the first n entries before a new query.
+     */
+    public void clear( int n )
+    {
+        Arrays.fill( dist, 0, n, Graph.INFINITY );
+        Arrays.fill( prev, 0, n, -1 );
+        Arrays.fill( hops, 0, n, 0 );
+        Arrays.fill( scratch, 0, n, 0 );
+        queue.clear( );
+        heap.clear( );
+        if( dial != null )
+            dial.clear( );
+        if( radix != null )
+            radix.clear( );
+    }
+
+    /**
+     * Reset the first n chosen paths before a query with a tie
+     * epsilon.
+     */
+    public void clearChoices( int n )
+    {
+        if( cand == null )
+        {
+            cand = new double[ capacity( ) ];
+            candTie = new long[ capacity( ) ];
+        }
+        if( order == null )
+            order = new int[ capacity( ) ];
+        Arrays.fill( cand, 0, n, Graph.INFINITY );
+        Arrays.fill( candTie, 0, n, Long.MAX_VALUE );
+    }
+
+    /**
+     * Offer w the path through v of cost d and tie key t; it is kept
+     * if it is cheaper, or as cheap with a lower tie key.  Return true
+     * if it was kept.
+     */
+    public boolean relax( int v, int w, double d, long t )
+    {
+        if( d < dist[ w ] || d == dist[ w ] && t < tie[ w ] )
+        {
+            hops[ w ] = hops[ v ] + 1;
+            dist[ w ] = d;
+            prev[ w ] = v;
+            tie[ w ] = t;
+            origin[ w ] = origin[ v ];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Offer w, whose least cost dist[ w ] is already final, the
+     * predecessor v under tie epsilon epsilon, where d is the cost of
+     * the path chosen for v, cand[ v ], plus the edge cost and t the
+     * tie key.  A path within epsilon of the least cost ties with it;
+     * among those the one kept has the lowest tie key, then the
+     * lowest d, which is left in cand[ w ].
+     */
+    public void choose( int v, int w, double d, long t, double epsilon )
+    {
+        if( d <= dist[ w ] + epsilon && ( t < candTie[ w ] || t == candTie[ w ] && d < cand[ w ] ) )
+        {
+            hops[ w ] = hops[ v ] + 1;
+            prev[ w ] = v;
+            candTie[ w ] = t;
+            origin[ w ] = origin[ v ];
+            cand[ w ] = d;
+        }
+    }
+
+    /**
+     * Return true if dijkstra settles v before w: by cost, then tie
+     * key, then id.
+     */
+    public boolean before( int v, int w )
+    {
+        return dist[ v ] < dist[ w ]
+            || dist[ v ] == dist[ w ] && ( tie[ v ] < tie[ w ] || tie[ v ] == tie[ w ] && v < w );
+    }
+}
+
+// Shortest-path tree from one pinned source that is kept current as
+// edges change.  An edge that shortens the path to its destination
+// starts a Dijkstra search seeded with that one vertex, which stops
+// as soon as no further vertex improves, so only the affected part of
+// the tree is visited (Ramalingam and Reps).  When a tree edge is
+// removed or made dearer, only the subtree below it is reset and
+// re-settled from its unaffected in-neighbors.  Ties are broken
+// toward fewer edges, then the lower predecessor id, as in
+// Graph.dijkstra under TieBreak.FEWEST_HOPS.
+class DynamicShortestPaths
+{
+    public final Vertex source;
+    public double [ ] dist;
+    public int [ ]    prev;     // Previous vertex id, -1 if none
+    public int [ ]    hops;
+
+    private List<Vertex> vertices;
+    private List<List<Vertex>> preds;  // Source of every edge into each vertex
+    private IntHeap heap;
+    private boolean [ ] inSubtree;     // Marks vertices being repaired
+    private int [ ] subtree;
+
+    /**
+     * Start from a completed search over the given vertices.
+     */
+    public DynamicShortestPaths( List<Vertex> vs, Vertex s,
+                                 double [ ] d, int [ ] p, int [ ] h )
+    {
+        vertices = vs;
+        source = s;
+        int n = vs.size( );
+        allocate( Math.max( n, 16 ) );
+        System.arraycopy( d, 0, dist, 0, n );
+        System.arraycopy( p, 0, prev, 0, n );
+        System.arraycopy( h, 0, hops, 0, n );
+
+        preds = new ArrayList<List<Vertex>>( n );
+        for( int i = 0; i < n; i++ )
+            preds.add( new ArrayList<Vertex>( 2 ) );
+        for( Vertex v : vs )
+            for( Edge e : v.adj )
+                preds.get( e.dest.id ).add( v );
+    }
+
+    private void allocate( int capacity )
+    {
+        double [ ] oldDist = dist;
+        int [ ] oldPrev = prev;
+        int [ ] oldHops = hops;
+        dist = new double[ capacity ];
+        prev = new int[ capacity ];
+        hops = new int[ capacity ];
+        Arrays.fill( dist, Graph.INFINITY );
+        Arrays.fill( prev, -1 );
+        if( oldDist != null )
+        {
+            System.arraycopy( oldDist, 0, dist, 0, oldDist.length );
+            System.arraycopy( oldPrev, 0, prev, 0, oldPrev.length );
+            System.arraycopy( oldHops, 0, hops, 0, oldHops.length );
+        }
+        heap = new IntHeap( dist, new long[ capacity ] );
+        inSubtree = new boolean[ capacity ];
+        subtree = new int[ capacity ];
+    }
+
+    /**
+     * Update the tree after the edge v -> w with cost cvw was added.
+     */
+    public void edgeAdded( Vertex v, Vertex w, double cvw )
+    {
+        if( vertices.size( ) > dist.length )
+            allocate( Math.max( vertices.size( ), dist.length * 2 ) );
+        while( preds.size( ) < vertices.size( ) )
+            preds.add( new ArrayList<Vertex>( 2 ) );
+
+        preds.get( w.id ).add( v );
+        edgeImproved( v, w, cvw );
+    }
+
+    /**
+     * Update the tree after the cost of the edge v -> w was lowered
+     * to cvw.
+     */
+    public void edgeImproved( Vertex v, Vertex w, double cvw )
+    {
+        if( relax( v.id, w.id, cvw ) )
+            propagate( );
+    }
+
+    /**
+     * Update the tree after every edge v -> w was removed.
+     */
+    public void edgesRemoved( Vertex v, Vertex w )
+    {
+        List<Vertex> p = preds.get( w.id );
+        while( p.remove( v ) )
+            ;
+        edgeWorsened( v, w );
+    }
+
+    /**
+     * Update the tree after the edge v -> w was removed or made
+     * dearer.  Nothing changes unless it was w's tree edge; then the
+     * subtree under w is reset and each of its vertices is offered
+     * the best path through an in-neighbor outside the subtree
+     * before the search re-settles it.
+     */
+    public void edgeWorsened( Vertex v, Vertex w )
+    {
+        if( prev[ w.id ] != v.id )
+            return;
+
+          // Collect the vertices whose prev chain runs through w
+        int size = 0;
+        subtree[ size++ ] = w.id;
+        inSubtree[ w.id ] = true;
+        for( int i = 0; i < size; i++ )
+        {
+            int x = subtree[ i ];
+            for( Edge e : vertices.get( x ).adj )
+            {
+                int y = e.dest.id;
+                if( prev[ y ] == x && !inSubtree[ y ] )
+                {
+                    inSubtree[ y ] = true;
+                    subtree[ size++ ] = y;
+                }
+            }
+        }
+
+        for( int i = 0; i < size; i++ )
+        {
+            int x = subtree[ i ];
+            dist[ x ] = Graph.INFINITY;
+            prev[ x ] = -1;
+            hops[ x ] = 0;
+        }
+
+        for( int i = 0; i < size; i++ )
+        {
+            int x = subtree[ i ];
+            for( Vertex u : preds.get( x ) )
+                if( !inSubtree[ u.id ] )
+                    for( Edge e : u.adj )
+                        if( e.dest.id == x )
+                            relax( u.id, x, e.cost );
+        }
+
+        for( int i = 0; i < size; i++ )
+            inSubtree[ subtree[ i ] ] = false;
+        propagate( );
+    }
+
+    /**
+     * Try to improve the path to w through v; on success queue w.
+     */
+    private boolean relax( int v, int w, double cvw )
+    {
+        if( dist[ v ] == Graph.INFINITY )
+            return false;
+
+        double d = dist[ v ] + cvw;
+        if( dist[ w ] > d || ( dist[ w ] == d && ( hops[ v ] + 1 < hops[ w ]
+                                || hops[ v ] + 1 == hops[ w ] && v < prev[ w ] ) ) )
+        {
+            hops[ w ] = hops[ v ] + 1;
+            dist[ w ] = d;
+            prev[ w ] = v;
+            heap.decreaseKey( w );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Settle the queued vertices and everything they improve.
+     */
+    private void propagate( )
+    {
+        while( !heap.isEmpty( ) )
+        {
+            int v = heap.deleteMin( );
+            for( Edge e : vertices.get( v ).adj )
+                relax( v, e.dest.id, e.cost );
+        }
+    }
+}
+
+// A computed shortest-path tree from one source, kept compactly as
+// a cost and previous vertex id per vertex id, and tagged with the
+// graph version it was computed on.
+class ShortestPathTree
+{
+    public final int       source;
+    public final long      version;
+    public final double [ ] dist;
+    public final int [ ]    prev;   // -1 if none
+
+    public ShortestPathTree( int source, long version, double [ ] d, int [ ] p, int n )
+    {
+        this.source = source;
+        this.version = version;
+        dist = Arrays.copyOf( d, n );
+        prev = Arrays.copyOf( p, n );
+    }
+
+    /**
+     * Approximate heap footprint, used for cache accounting.
+     */
+    public long bytes( )
+      { return 64 + 12L * dist.length; }
+
+    /**
+     * Return the vertex ids on the path from the source to dest,
+     * or null if dest is unreachable.
+     */
+    public int [ ] path( int dest )
+    {
+        if( dist[ dest ] == Graph.INFINITY )
+            return null;
+
+        int length = 1;
+        for( int v = dest; prev[ v ] != -1; v = prev[ v ] )
+            length++;
+
+        int [ ] path = new int[ length ];
+        for( int v = dest; length > 0; v = prev[ v ] )
+            path[ --length ] = v;
+        return path;
+    }
+
+    /**
+     * Return the path from the source to dest as a PathResult.
+     */
+    public PathResult result( int dest )
+    {
+        int [ ] path = path( dest );
+        return path == null ? new PathResult( Graph.INFINITY, null, 0 )
+                            : new PathResult( dist[ dest ], path, path.length );
+    }
+}
+
+// A shortest path between two vertices: its cost and the first
+// length vertex ids of the shared array.  Paths to every vertex on a
+// cached path share that path's array, since each prefix of a
+// shortest path is itself a shortest path.  A path found on a
+// snapshot keeps that snapshot's vertices, so its ids can be named
+// after the graph has changed or been renumbered.
+class PathResult
+{
+    public final double  cost;
+    public final int [ ] vertices;   // null if unreachable
+    public final int     length;
+    final Vertex [ ]     names;      // Vertices the ids refer to, null for the graph's own
+
+    public PathResult( double cost, int [ ] vertices, int length )
+    {
+        this( cost, vertices, length, null );
+    }
+
+    PathResult( double cost, int [ ] vertices, int length, Vertex [ ] names )
+    {
+        this.cost = cost;
+        this.vertices = vertices;
+        this.length = length;
+        this.names = names;
+    }
+
+    public boolean reachable( )
+      { return vertices != null; }
+}
+
+// A path found by Yen's algorithm: its vertex ids, the cost of
+// each prefix, and the index at which it deviates from the path
+// it was derived from.  Ordered by cost, then by number of edges.
+class YenPath implements Comparable<YenPath>
+{
+    public final int [ ]    path;
+    public final double [ ] prefixCost;
+    public final int        deviation;
+
+    public YenPath( int [ ] p, double [ ] c, int d )
+    {
+        path = p;
+        prefixCost = c;
+        deviation = d;
+    }
+
+    public double cost( )
+      { return prefixCost[ path.length - 1 ]; }
+
+    public int compareTo( YenPath rhs )
+    {
+        double otherCost = rhs.cost( );
+        double cost = cost( );
+
+        return cost < otherCost ? -1 : cost > otherCost ? 1 : path.length - rhs.path.length;
+    }
+}
+
+// Compressed sparse row copy of a graph's adjacency lists.
+// The out-edges of vertex v are dest( e ), cost( e ) for e in
+// start( v ) .. start( v + 1 )-1.  Vertex ids index every array.
+// Costs are stored as doubles, or as floats when built with
+// floatCosts, which saves a third of the edge storage but rounds
+// each cost to 24 significant bits (about 7 decimal digits).
+// Distances are still summed in double.  Each storage layout is its
+// own subclass, so the accessors of the default on-heap double
+// layout read their arrays without testing which layout is in use.
+abstract class CsrGraph
+{
+    public final Vertex [ ] vertices;
+    protected final int     edges;
+    public final boolean    wholeCosts;  // Every cost is a whole number >= 0
+    public final double     maxCost;
+
+    private CsrGraph reverse;            // Transpose, built on demand
+
+    protected CsrGraph( Vertex [ ] vs, int edges, boolean wholeCosts, double maxCost )
+    {
+        vertices = vs;
+        this.edges = edges;
+        this.wholeCosts = wholeCosts;
+        this.maxCost = maxCost;
+    }
+
+    /**
+     * Build the on-heap CSR of the adjacency lists of vs.
+     */
+    public static CsrGraph build( List<Vertex> vs, boolean floatCosts )
+    {
+        int n = vs.size( );
+        Vertex [ ] vertices = vs.toArray( new Vertex[ n ] );
+        int [ ] start = new int[ n + 1 ];
+        for( int v = 0; v < n; v++ )
+            start[ v + 1 ] = start[ v ] + vertices[ v ].adj.size( );
+
+        int edges = start[ n ];
+        int [ ] dest = new int[ edges ];
+        double [ ] cost = new double[ edges ];
+        for( int v = 0, e = 0; v < n; v++ )
+            for( Edge edge : vertices[ v ].adj )
+            {
+                dest[ e ] = edge.dest.id;
+                cost[ e ] = floatCosts ? (float) edge.cost : edge.cost;
+                e++;
+            }
+        return make( vertices, start, dest, cost, floatCosts );
+    }
+
+    /**
+     * Wrap the given arrays in the on-heap layout, costs narrowed to
+     * floats if floatCosts.
+     */
+    static CsrGraph make( Vertex [ ] vs, int [ ] start, int [ ] dest,
+                                  double [ ] cost, boolean floatCosts )
+    {
+        boolean whole = true;
+        double max = 0;
+        for( double c : cost )
+        {
+            whole &= c >= 0 && c == Math.rint( c );
+            max = Math.max( max, c );
+        }
+        if( !floatCosts )
+            return new HeapCsrGraph( vs, start, dest, cost, whole, max );
+
+        float [ ] narrow = new float[ cost.length ];
+        for( int e = 0; e < cost.length; e++ )
+            narrow[ e ] = (float) cost[ e ];
+        return new FloatCsrGraph( vs, start, dest, narrow, whole, max );
+    }
+
+    /**
+     * Index of the first out-edge of v; the out-edges of v are
+     * start( v ) up to start( v + 1 ).
+     */
+    public abstract int start( int v );
+
+    public abstract int dest( int e );
+
+    public abstract double cost( int e );
+
+    public abstract boolean floatCosts( );
+
+    public int edges( )
+      { return edges; }
+
+    public boolean isOffHeap( )
+      { return false; }
+
+    /**
+     * Return a copy of this graph held outside the Java heap.
+     */
+    public CsrGraph offHeap( )
+      { return new OffHeapCsrGraph( this ); }
+
+    /**
+     * Write to out the out-edges e of v that may improve their end w,
+     * those with base + cost( e ) <= key[ w ] or a negative cost, and
+     * return how many there are.  The callers only ever lower key
+     * while v is scanned, so an edge left out cannot improve w later
+     * in the scan either.  The test compiles to a conditional move
+     * instead of a branch, so for a vertex of high degree it is
+     * cheaper than taking a hard-to-predict branch per edge.
+     */
+    public int improving( int v, double base, double [ ] key, int [ ] out )
+    {
+        int n = 0;
+        for( int e = start( v ), last = start( v + 1 ); e < last; e++ )
+        {
+            double c = cost( e );
+            out[ n ] = e;
+            n += base + c <= key[ dest( e ) ] | c < 0 ? 1 : 0;
+        }
+        return n;
+    }
+
+    /**
+     * Return the transpose of this graph, built on first use and
+     * kept off heap if this graph is.
+     */
+    public CsrGraph reverse( )
+    {
+        if( reverse == null )
+        {
+            CsrGraph r = transpose( );
+            if( isOffHeap( ) )
+                r = r.offHeap( );
+            r.reverse = this;
+            reverse = r;
+        }
+        return reverse;
+    }
+
+    /**
+     * Build the on-heap transpose: an edge w -> v of the same cost
+     * for every edge v -> w.
+     */
+    private CsrGraph transpose( )
+    {
+        int n = vertices.length;
+        int [ ] start = new int[ n + 1 ];
+        int [ ] dest = new int[ edges ];
+        double [ ] cost = new double[ edges ];
+
+        for( int e = 0; e < edges; e++ )
+            start[ dest( e ) + 1 ]++;
+        for( int v = 0; v < n; v++ )
+            start[ v + 1 ] += start[ v ];
+
+        int[] fill = Arrays.copyOf( start, n );
+        for( int v = 0; v < n; v++ )
+            for( int e = start( v ); e < start( v + 1 ); e++ )
+            {
+                int slot = fill[ dest( e ) ]++;
+                dest[ slot ] = v;
+                cost[ slot ] = cost( e );
+            }
+        return make( vertices, start, dest, cost, floatCosts( ) );
+    }
+}
+
+// The default CSR layout: start, dest and double costs in heap
+// arrays.  improving runs over the arrays directly.
+final class HeapCsrGraph extends CsrGraph
+{
+    private final int [ ]    start;
+    private final int [ ]    dest;
+    private final double [ ] cost;
+
+    HeapCsrGraph( Vertex [ ] vs, int [ ] start, int [ ] dest, double [ ] cost,
+                  boolean wholeCosts, double maxCost )
+    {
+        super( vs, dest.length, wholeCosts, maxCost );
+        this.start = start;
+        this.dest = dest;
+        this.cost = cost;
+    }
+
+    public int start( int v )
+      { return start[ v ]; }
+
+    public int dest( int e )
+      { return dest[ e ]; }
+
+    public double cost( int e )
+      { return cost[ e ]; }
+
+    public boolean floatCosts( )
+      { return false; }
+
+    public int improving( int v, double base, double [ ] key, int [ ] out )
+    {
+        int n = 0;
+        for( int e = start[ v ], last = start[ v + 1 ]; e < last; e++ )
+        {
+            double c = cost[ e ];
+            out[ n ] = e;
+            n += base + c <= key[ dest[ e ] ] | c < 0 ? 1 : 0;
+        }
+        return n;
+    }
+}
+
+// CSR layout with float costs in a heap array.
+final class FloatCsrGraph extends CsrGraph
+{
+    private final int [ ]   start;
+    private final int [ ]   dest;
+    private final float [ ] cost;
+
+    FloatCsrGraph( Vertex [ ] vs, int [ ] start, int [ ] dest, float [ ] cost,
+                   boolean wholeCosts, double maxCost )
+    {
+        super( vs, dest.length, wholeCosts, maxCost );
+        this.start = start;
+        this.dest = dest;
+        this.cost = cost;
+    }
+
+    public int start( int v )
+      { return start[ v ]; }
+
+    public int dest( int e )
+      { return dest[ e ]; }
+
+    public double cost( int e )
+      { return cost[ e ]; }
+
+    public boolean floatCosts( )
+      { return true; }
+}
+
+// CSR layout outside the Java heap: start, dest and the costs laid
+// out one after another in a single direct buffer.
+final class OffHeapCsrGraph extends CsrGraph
+{
+    private final ByteBuffer store;
+    private final boolean    floats;     // Costs are held as floats
+    private final int        destBase;   // Byte offsets of the sections of store
+    private final int        costBase;
+
+    /**
+     * Construct an off-heap copy of g.
+     */
+    OffHeapCsrGraph( CsrGraph g )
+    {
+        super( g.vertices, g.edges( ), g.wholeCosts, g.maxCost );
+        int n = g.vertices.length;
+        floats = g.floatCosts( );
+
+        long destAt = 4L * ( n + 1 );
+        long costAt = ( destAt + 4L * edges + 7 ) & ~7L;
+        long size = costAt + ( floats ? 4L : 8L ) * edges;
+        if( size > Integer.MAX_VALUE )
+            throw new GraphException( "Graph too large for off-heap storage" );
+        destBase = (int) destAt;
+        costBase = (int) costAt;
+        store = ByteBuffer.allocateDirect( (int) size ).order( ByteOrder.nativeOrder( ) );
+
+        for( int v = 0; v <= n; v++ )
+            store.putInt( v << 2, g.start( v ) );
+        for( int e = 0; e < edges; e++ )
+        {
+            store.putInt( destBase + ( e << 2 ), g.dest( e ) );
+            if( floats )
+                store.putFloat( costBase + ( e << 2 ), (float) g.cost( e ) );
+            else
+                store.putDouble( costBase + ( e << 3 ), g.cost( e ) );
+        }
+    }
+
+    public int start( int v )
+      { return store.getInt( v << 2 ); }
+
+    public int dest( int e )
+      { return store.getInt( destBase + ( e << 2 ) ); }
+
+    public double cost( int e )
+    {
+        return floats ? store.getFloat( costBase + ( e << 2 ) )
+                      : store.getDouble( costBase + ( e << 3 ) );
+    }
+
+    public boolean floatCosts( )
+      { return floats; }
+
+    public boolean isOffHeap( )
+      { return true; }
+
+    public CsrGraph offHeap( )
+      { return this; }
+}
+
+// An immutable version of the graph that queries can run on while a
+// writer keeps changing the Graph.  A snapshot is a CSR base plus a
+// log of the changes made since the base was built; each change makes
+// a new snapshot that shares the base and the log arrays, which are
+// only ever written past the end older snapshots read.  The log is
+// merged with the base into a CSR of the version's own the first time
+// a snapshot is queried, and queries run Graph's dijkstra on it.
+// Every query uses working storage private to its thread, so queries
+// never block each other or the writer.  Each version keeps its own
+// point-to-point cache, so an answer never outlives its version.
+class GraphSnapshot
+{
+      // A snapshot resolved for querying: its CSR and the ids of the
+      // vertices added after the base.
+    private static final class Merged
+    {
+        final CsrGraph csr;
+        final Map<String,Integer> names;
+
+        Merged( CsrGraph g, Map<String,Integer> nm )
+          { csr = g; names = nm; }
+    }
+
+    private static final ThreadLocal<SearchState> STATE = new ThreadLocal<SearchState>( );
+      // Approximate cost of one cache entry with its key and PathResult
+    private static final int PATH_ENTRY_BYTES = 96;
+
+    public final long version;
+    private final Graph       graph;      // Owner, whose settings queries follow
+    private final CsrGraph    base;
+    private final VertexTable baseNames;
+    private final Vertex [ ]  vertices;   // First n are this version's
+    private final int         n;
+    private final int [ ]     logFrom;    // First logSize are this version's
+    private final int [ ]     logTo;
+    private final double [ ]  logCost;    // NaN: remove every edge logFrom -> logTo
+    private final int         logSize;
+    private volatile Merged   merged;     // Built on first query
+
+      // Point-to-point results keyed by pathKey( source id, target id )
+    private final ConcurrentHashMap<Long,PathResult> paths =
+        new ConcurrentHashMap<Long,PathResult>( );
+    private final AtomicLong pathBytes = new AtomicLong( );
+
+    /**
+     * Construct a snapshot of base with an empty log.
+     */
+    public GraphSnapshot( Graph graph, long version, CsrGraph base )
+    {
+        this.version = version;
+        this.graph = graph;
+        this.base = base;
+        vertices = base.vertices;
+        n = vertices.length;
+        baseNames = new VertexTable( Arrays.asList( vertices ), n );
+        for( Vertex v : vertices )
+            baseNames.put( v );
+        logFrom = new int[ 16 ];
+        logTo = new int[ 16 ];
+        logCost = new double[ 16 ];
+        logSize = 0;
+    }
+
+    private GraphSnapshot( GraphSnapshot prior, long version, Vertex [ ] vs, int n,
+                           int [ ] from, int [ ] to, double [ ] cost, int logSize )
+    {
+        this.version = version;
+        graph = prior.graph;
+        base = prior.base;
+        baseNames = prior.baseNames;
+        vertices = vs;
+        this.n = n;
+        logFrom = from;
+        logTo = to;
+        logCost = cost;
+        this.logSize = logSize;
+    }
+
+    public int vertexCount( )
+      { return n; }
+
+    public int logSize( )
+      { return logSize; }
+
+    public int baseEdges( )
+      { return base.edges( ); }
+
+    /**
+     * Return the next version: this one with all vs after the first
+     * n added, then, if replace, every edge from -> to removed, then
+     * copies edges from -> to of the given cost added.  Only the
+     * writer may call this, and only on the latest version.
+     */
+    public GraphSnapshot with( long version, List<Vertex> vs, int from, int to,
+                               boolean replace, double cost, int copies )
+    {
+        Vertex [ ] v = vertices;
+        if( vs.size( ) > v.length )
+            v = Arrays.copyOf( v, Math.max( vs.size( ), v.length * 2 ) );
+        for( int i = n; i < vs.size( ); i++ )
+            v[ i ] = vs.get( i );
+
+        int size = logSize + copies + ( replace ? 1 : 0 );
+        int [ ] f = logFrom, t = logTo;
+        double [ ] c = logCost;
+        if( size > f.length )
+        {
+            int capacity = Math.max( size, f.length * 2 );
+            f = Arrays.copyOf( f, capacity );
+            t = Arrays.copyOf( t, capacity );
+            c = Arrays.copyOf( c, capacity );
+        }
+        int k = logSize;
+        if( replace )
+        {
+            f[ k ] = from; t[ k ] = to; c[ k ] = Double.NaN; k++;
+        }
+        for( int i = 0; i < copies; i++, k++ )
+        {
+            f[ k ] = from; t[ k ] = to; c[ k ] = cost;
+        }
+        return new GraphSnapshot( this, version, v, vs.size( ), f, t, c, size );
+    }
+
+    /**
+     * Return the CSR of this version, in the base's layout.
+     */
+    public CsrGraph csr( )
+      { return merged( ).csr; }
+
+    /**
+     * Return the merged form, building it on first use: each vertex
+     * gets its base edges that survive, then its logged edges that
+     * survive, in log order.  Walking the log backwards, an added
+     * edge survives unless its pair is removed later; a base edge
+     * survives unless its pair is removed at all.
+     */
+    private Merged merged( )
+    {
+        Merged m = merged;
+        if( m != null )
+            return m;
+        int baseN = base.vertices.length;
+        if( logSize == 0 && n == baseN )
+            return merged = new Merged( base, Collections.<String,Integer>emptyMap( ) );
+
+        Set<Long> removedPairs = new HashSet<Long>( );
+        boolean[] alive = new boolean[ logSize ];
+        int[] start = new int[ n + 1 ];
+        for( int i = logSize - 1; i >= 0; i-- )
+        {
+            long pair = (long) logFrom[ i ] << 32 | logTo[ i ];
+            if( Double.isNaN( logCost[ i ] ) )
+                removedPairs.add( pair );
+            else if( !removedPairs.contains( pair ) )
+            {
+                alive[ i ] = true;
+                start[ logFrom[ i ] + 1 ]++;
+            }
+        }
+
+        boolean[] removed = new boolean[ base.edges( ) ];
+        for( long pair : removedPairs )
+        {
+            int v = (int) ( pair >>> 32 ), w = (int) pair;
+            if( v < baseN )
+                for( int e = base.start( v ); e < base.start( v + 1 ); e++ )
+                    removed[ e ] |= base.dest( e ) == w;
+        }
+        for( int v = 0; v < baseN; v++ )
+            for( int e = base.start( v ); e < base.start( v + 1 ); e++ )
+                if( !removed[ e ] )
+                    start[ v + 1 ]++;
+        for( int v = 0; v < n; v++ )
+            start[ v + 1 ] += start[ v ];
+
+        int[] fill = Arrays.copyOf( start, n );
+        int[] dest = new int[ start[ n ] ];
+        double[] cost = new double[ start[ n ] ];
+        for( int v = 0; v < baseN; v++ )
+            for( int e = base.start( v ); e < base.start( v + 1 ); e++ )
+                if( !removed[ e ] )
+                {
+                    int slot = fill[ v ]++;
+                    dest[ slot ] = base.dest( e );
+                    cost[ slot ] = base.cost( e );
+                }
+        for( int i = 0; i < logSize; i++ )
+            if( alive[ i ] )
+            {
+                int slot = fill[ logFrom[ i ] ]++;
+                dest[ slot ] = logTo[ i ];
+                cost[ slot ] = logCost[ i ];
+            }
+
+        CsrGraph g = CsrGraph.make( Arrays.copyOf( vertices, n ), start, dest, cost,
+                                    base.floatCosts( ) );
+        if( base.isOffHeap( ) )
+            g = g.offHeap( );
+
+        Map<String,Integer> names = new HashMap<String,Integer>( );
+        for( int v = baseN; v < n; v++ )
+            names.put( vertices[ v ].name, v );
+
+        return merged = new Merged( g, names );
+    }
+
+    /**
+     * Return the id of the named vertex in this version, or -1 if
+     * there is none.
+     */
+    private int find( String name )
+    {
+        Vertex v = baseNames.get( name );
+        if( v != null )
+            return v.id;
+        Integer id = merged( ).names.get( name );
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Return the id of the named vertex in this version.
+     */
+    public int id( String name )
+    {
+        int id = find( name );
+        if( id < 0 )
+            throw new NoSuchElementException( "Vertex not found: " + name );
+        return id;
+    }
+
+    /**
+     * Return the shortest-path tree from sourceName.
+     */
+    public ShortestPathTree shortestPathTree( String sourceName )
+    {
+        int source = id( sourceName );
+        SearchState s = search( source, null );
+        return new ShortestPathTree( source, version, s.dist, s.prev, n );
+    }
+
+    /**
+     * Return the shortest path from sourceName to targetName.
+     * Answers come from this version's cache when possible; a miss
+     * runs a search that stops once the target is settled and caches
+     * the path to the target together with the path to every vertex
+     * on it, all sharing one array.  Hits need no lock.
+     */
+    public PathResult shortestPath( String sourceName, String targetName )
+    {
+        int source = id( sourceName );
+        int target = id( targetName );
+        PathResult p = paths.get( pathKey( source, target ) );
+        if( p != null )
+            return p;
+
+        SearchState s = search( source, new int[ ] { target } );
+        int [ ] path = path( s, target );
+        if( path == null )
+        {
+            p = new PathResult( Graph.INFINITY, null, 0, vertices );
+            cachePath( source, target, p, PATH_ENTRY_BYTES );
+            return p;
+        }
+
+          // Reserve for every entry first, since the reservation
+          // may empty the cache, then give back the entries that
+          // turned out to be cached already
+        reservePaths( path.length * (long) PATH_ENTRY_BYTES + 16 + 4L * path.length );
+        int present = 0;
+        for( int i = 0; i < path.length; i++ )
+        {
+            p = new PathResult( s.dist[ path[ i ] ], path, i + 1, vertices );
+            if( paths.putIfAbsent( pathKey( source, path[ i ] ), p ) != null )
+                present++;
+        }
+        pathBytes.addAndGet( -present * (long) PATH_ENTRY_BYTES );
+        return p;
+    }
+
+    /**
+     * Return the shortest paths from sourceName to each of
+     * targetNames, an unknown target getting null.  The paths not
+     * cached are found by one search, which stops once all their
+     * targets are settled, and are then cached.
+     */
+    public PathResult [ ] shortestPaths( String sourceName, List<String> targetNames )
+    {
+        int source = id( sourceName );
+        PathResult [ ] result = new PathResult[ targetNames.size( ) ];
+        int [ ] targets = new int[ result.length ];
+        int misses = 0;
+        for( int i = 0; i < result.length; i++ )
+        {
+            targets[ i ] = find( targetNames.get( i ) );
+            if( targets[ i ] >= 0
+                && ( result[ i ] = paths.get( pathKey( source, targets[ i ] ) ) ) == null )
+                misses++;
+        }
+        if( misses == 0 )
+            return result;
+
+        int [ ] wanted = new int[ misses ];
+        for( int i = 0, k = 0; i < result.length; i++ )
+            if( targets[ i ] >= 0 && result[ i ] == null )
+                wanted[ k++ ] = targets[ i ];
+        SearchState s = search( source, wanted );
+        for( int i = 0; i < result.length; i++ )
+            if( targets[ i ] >= 0 && result[ i ] == null )
+            {
+                int [ ] path = path( s, targets[ i ] );
+                result[ i ] = path == null ? new PathResult( Graph.INFINITY, null, 0, vertices )
+                    : new PathResult( s.dist[ targets[ i ] ], path, path.length, vertices );
+                if( !paths.containsKey( pathKey( source, targets[ i ] ) ) )
+                    cachePath( source, targets[ i ], result[ i ],
+                               PATH_ENTRY_BYTES + 16 + 4L * result[ i ].length );
+            }
+        return result;
+    }
+
+    /**
+     * Return the cached shortest path from sourceName to targetName,
+     * or null if it is not cached.  This never searches.
+     */
+    public PathResult cachedPath( String sourceName, String targetName )
+    {
+        int source = find( sourceName ), target = find( targetName );
+        return source < 0 || target < 0 ? null : paths.get( pathKey( source, target ) );
+    }
+
+    public double distance( String sourceName, String targetName )
+      { return shortestPath( sourceName, targetName ).cost; }
+
+    /**
+     * Return the names of the vertices on p, in order, from the
+     * snapshot p was found on if it was found on one.
+     */
+    public List<String> pathNames( PathResult p )
+    {
+        Vertex [ ] vs = p.names != null ? p.names : vertices;
+        List<String> names = new ArrayList<String>( p.length );
+        for( int i = 0; i < p.length; i++ )
+            names.add( vs[ p.vertices[ i ] ].name );
+        return names;
+    }
+
+    /**
+     * Drop the cached paths.
+     */
+    public void clearPaths( )
+    {
+        paths.clear( );
+        pathBytes.set( 0 );
+    }
+
+    /**
+     * Return the cache key of source and target: the pair packed into
+     * a long, then multiplied by an odd constant, which keeps keys
+     * distinct.  Long.hashCode folds the halves of a packed pair into
+     * source ^ target, so a snapshot's whole cache would share about n
+     * hash values; the product spreads every bit over both halves.
+     */
+    private static long pathKey( int source, int target )
+    {
+        return ( (long) source << 32 | target ) * 0x9E3779B97F4A7C15L;
+    }
+
+    private void cachePath( int source, int target, PathResult p, long bytes )
+    {
+        reservePaths( bytes );
+        paths.put( pathKey( source, target ), p );
+    }
+
+    /**
+     * Account for bytes about to be added; when that would pass the
+     * owner's budget the whole cache is dropped, which keeps eviction
+     * free of any per-entry bookkeeping on the lock-free read path.
+     */
+    private void reservePaths( long bytes )
+    {
+        if( pathBytes.addAndGet( bytes ) > graph.pathCacheLimit( ) )
+        {
+            paths.clear( );
+            pathBytes.set( bytes );
+        }
+    }
+
+    /**
+     * Return the vertex ids on the path s found to target, or null if
+     * target is unreachable.
+     */
+    private static int [ ] path( SearchState s, int target )
+    {
+        if( s.dist[ target ] == Graph.INFINITY )
+            return null;
+
+        int length = 1;
+        for( int v = target; s.prev[ v ] != -1; v = s.prev[ v ] )
+            length++;
+        int [ ] path = new int[ length ];
+        for( int v = target, i = length; i > 0; v = s.prev[ v ] )
+            path[ --i ] = v;
+        return path;
+    }
+
+    /**
+     * Run the owner's dijkstra from source on this version, in this
+     * thread's working storage.  If targets is not null the search
+     * stops once all of them are settled.
+     */
+    private SearchState search( int source, int [ ] targets )
+    {
+        CsrGraph g = csr( );
+        SearchState s = STATE.get( );
+        if( s == null || s.capacity( ) < n )
+            STATE.set( s = new SearchState( Math.max( n, 16 ) ) );
+
+        int distinct = 0;
+        if( targets != null )
+            for( int v : targets )
+                if( !s.target[ v ] )
+                {
+                    s.target[ v ] = true;
+                    distinct++;
+                }
+        try
+        {
+            graph.search( g, s, source, distinct );
+        }
+        finally
+        {
+            if( targets != null )
+                for( int v : targets )
+                    s.target[ v ] = false;
+        }
+        return s;
+    }
+}
+
+// Front end that collects point-to-point requests for a short window
+// and groups them by source, so all the requests from one source that
+// arrive together cost one shortest-path search.  A batch closes when
+// it holds maxBatch requests or windowNanos after its first request
+// arrived.  Answers are delivered through futures, which fail with
+// NoSuchElementException for unknown vertices.
+class QueryBatcher implements Closeable
+{
+    private static class Request
+    {
+        final String source;
+        final String target;
+        final long   submitted = System.nanoTime( );
+        final CompletableFuture<PathResult> answer = new CompletableFuture<PathResult>( );
+
+        Request( String s, String t )
+          { source = s; target = t; }
+    }
+
+    private final Graph graph;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<Request>( );
+    private final Thread worker;
+    private boolean closed;
+
+    private final long startedAt = System.nanoTime( );
+    private long requests;
+    private long batches;
+    private long groups;                           // Distinct sources over all batches
+    private final long[] latency = new long[ 64 ];  // Bucket k: 2^k up to 2^(k+1) ns
+
+    public QueryBatcher( Graph g, int maxBatch, long windowNanos )
+    {
+        if( maxBatch < 1 || windowNanos < 0 )
+            throw new IllegalArgumentException( "Bad batch size or window" );
+        graph = g;
+        this.maxBatch = maxBatch;
+        this.windowNanos = windowNanos;
+        worker = new Thread( new Runnable( )
+          {
+            public void run( )
+              { work( ); }
+          }, "graph-batcher" );
+        worker.setDaemon( true );
+        worker.start( );
+    }
+
+    /**
+     * Queue a request for the shortest path from source to target.
+     */
+    public Future<PathResult> submit( String source, String target )
+    {
+        Request r = new Request( source, target );
+        synchronized( pending )
+        {
+            if( closed )
+                throw new IllegalStateException( "QueryBatcher is closed" );
+            pending.add( r );
+        }
+        return r.answer;
+    }
+
+    /**
+     * Stop the worker; requests not yet answered are cancelled.
+     */
+    public void close( )
+    {
+        synchronized( pending )
+          { closed = true; }
+        worker.interrupt( );
+        try
+          { worker.join( ); }
+        catch( InterruptedException e )
+          { Thread.currentThread( ).interrupt( ); }
+        for( Request r; ( r = pending.poll( ) ) != null; )
+            r.answer.cancel( false );
+    }
+
+    private void work( )
+    {
+        List<Request> batch = new ArrayList<Request>( );
+        try
+        {
+            for( ; ; )
+            {
+                batch.clear( );
+                batch.add( pending.take( ) );
+                long deadline = System.nanoTime( ) + windowNanos;
+                while( batch.size( ) < maxBatch )
+                {
+                    pending.drainTo( batch, maxBatch - batch.size( ) );
+                    long wait = deadline - System.nanoTime( );
+                    if( batch.size( ) >= maxBatch || wait <= 0 )
+                        break;
+                    Request r = pending.poll( wait, TimeUnit.NANOSECONDS );
+                    if( r == null )
+                        break;
+                    batch.add( r );
+                }
+                answer( batch );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            for( Request r : batch )
+                r.answer.cancel( false );
+        }
+    }
+
+    /**
+     * Answer one batch with one search per distinct source.
+     */
+    private void answer( List<Request> batch )
+    {
+        Map<String,List<Request>> bySource = new LinkedHashMap<String,List<Request>>( );
+        for( Request r : batch )
+        {
+            List<Request> group = bySource.get( r.source );
+            if( group == null )
+                bySource.put( r.source, group = new ArrayList<Request>( ) );
+            group.add( r );
+        }
+
+        List<String> targets = new ArrayList<String>( );
+        for( Map.Entry<String,List<Request>> e : bySource.entrySet( ) )
+        {
+            List<Request> group = e.getValue( );
+            targets.clear( );
+            for( Request r : group )
+                targets.add( r.target );
+            try
+            {
+                PathResult[] paths = graph.shortestPaths( e.getKey( ), targets );
+                for( int i = 0; i < paths.length; i++ )
+                    if( paths[ i ] == null )
+                        group.get( i ).answer.completeExceptionally(
+                            new NoSuchElementException( "Destination vertex not found" ) );
+                    else
+                        group.get( i ).answer.complete( paths[ i ] );
+            }
+            catch( RuntimeException ex )
+            {
+                for( Request r : group )
+                    r.answer.completeExceptionally( ex );
+            }
+        }
+
+        long now = System.nanoTime( );
+        synchronized( this )
+        {
+            requests += batch.size( );
+            batches++;
+            groups += bySource.size( );
+            for( Request r : batch )
+                latency[ 63 - Long.numberOfLeadingZeros( Math.max( now - r.submitted, 1 ) ) ]++;
+        }
+    }
+
+    public synchronized long requests( )
+      { return requests; }
+
+    public synchronized long batches( )
+      { return batches; }
+
+    /**
+     * Return the number of searches run: one per distinct source
+     * in each batch.
+     */
+    public synchronized long searches( )
+      { return groups; }
+
+    /**
+     * Return a copy of the submit-to-answer latency histogram.
+     */
+    public synchronized long[] latencyHistogram( )
+      { return latency.clone( ); }
+
+    /**
+     * Return the requests answered per second since construction.
+     */
+    public synchronized double throughput( )
+      { return requests * 1e9 / Math.max( System.nanoTime( ) - startedAt, 1 ); }
+
+    public synchronized String toString( )
+    {
+        return requests + " requests in " + batches + " batches, "
+            + groups + " searches, " + (long) throughput( ) + " requests/s";
+    }
+}
+
+// Long-running query server: the graph is loaded once and answers
+// requests from any number of clients over TCP or a Unix-domain
+// socket, one thread per connection.  The protocol is one request
+// per line, one reply line each:
+//
+//   PATH s t      --> OK cost v1 v2 ... vk, or NONE if unreachable
+//   DISTANCE s t  --> OK cost, or NONE
+//   QUIT          --> closes the connection
+//
+// Anything else gets ERR and a message.  Queries go through the
+// graph's QueryBatcher, so requests from many clients that share a
+// source share one search.  Every query is answered on the graph's
+// latest snapshot, so the graph may go on changing while the server
+// runs.
+class GraphServer implements Closeable
+{
+      // Splits the bytes of a connection into lines.  read blocks only
+      // while no complete line is buffered, and then returns every
+      // complete line buffered, so a partial line never holds back
+      // the replies to the lines before it.
+    private static final class LineReader
+    {
+        private final InputStream in;
+        private byte [ ] buf = new byte[ 8192 ];
+        private int start;       // First byte not yet returned
+        private int scanned;     // First byte not yet searched for '\n'
+        private int end;         // End of the bytes read
+
+        LineReader( InputStream in )
+          { this.in = in; }
+
+        /**
+         * Add the buffered complete lines to lines, first reading until
+         * there is at least one.  At end of input an unterminated last
+         * line counts as complete.  Return false at end of input with
+         * nothing left.
+         */
+        boolean read( List<String> lines ) throws IOException
+        {
+            for( ; ; )
+            {
+                for( ; scanned < end; scanned++ )
+                    if( buf[ scanned ] == '\n' )
+                    {
+                        lines.add( line( scanned ) );
+                        start = scanned + 1;
+                    }
+                if( !lines.isEmpty( ) )
+                    return true;
+
+                if( start > 0 )  // move the partial line to the front
+                {
+                    System.arraycopy( buf, start, buf, 0, end - start );
+                    end -= start;
+                    scanned -= start;
+                    start = 0;
+                }
+                if( end == buf.length )
+                    buf = Arrays.copyOf( buf, buf.length * 2 );
+
+                int n = in.read( buf, end, buf.length - end );
+                if( n < 0 )
+                {
+                    if( start == end )
+                        return false;
+                    lines.add( line( end ) );
+                    start = end;
+                    return true;
+                }
+                end += n;
+            }
+        }
+
+        /**
+         * Decode the line from start up to stop, without a trailing '\r'.
+         */
+        private String line( int stop )
+        {
+            if( stop > start && buf[ stop - 1 ] == '\r' )
+                stop--;
+            return new String( buf, start, stop - start, StandardCharsets.UTF_8 );
+        }
+    }
+
+    private final Graph graph;
+    private final ServerSocketChannel server;
+    private final SocketAddress address;     // Bound address
+    private final ExecutorService connections;
+
+    /**
+     * Bind to address, an InetSocketAddress or UnixDomainSocketAddress.
+     */
+    public GraphServer( Graph g, SocketAddress address ) throws IOException
+    {
+        graph = g;
+        g.snapshot( );   // before any connection can ask for it
+        server = address instanceof UnixDomainSocketAddress
+            ? ServerSocketChannel.open( StandardProtocolFamily.UNIX )
+            : ServerSocketChannel.open( );
+        server.bind( address );
+        this.address = server.getLocalAddress( );
+        connections = Executors.newCachedThreadPool( new ThreadFactory( )
+          {
+            private int count;
+
+            public synchronized Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "graph-connection-" + ++count );
+                t.setDaemon( true );
+                return t;
+            }
+          } );
+    }
+
+    /**
+     * Parse a server address: a port or host:port for TCP on that
+     * host (loopback if none), or a Unix-domain socket path, which
+     * must contain a '/' or start with "unix:".  Anything else, or a
+     * port out of range, throws IllegalArgumentException.
+     */
+    public static SocketAddress parseAddress( String s )
+    {
+        if( s.startsWith( "unix:" ) )
+            return UnixDomainSocketAddress.of( s.substring( 5 ) );
+        if( s.indexOf( '/' ) >= 0 )
+            return UnixDomainSocketAddress.of( s );
+
+        int colon = s.lastIndexOf( ':' );
+        int port;
+        try
+          { port = Integer.parseInt( s.substring( colon + 1 ) ); }
+        catch( NumberFormatException e )
+          { throw new IllegalArgumentException( "Not a port, host:port or socket path: " + s ); }
+        if( port < 0 || port > 65535 )
+            throw new IllegalArgumentException( "Port out of range: " + port );
+
+        if( colon < 0 )
+            return new InetSocketAddress( InetAddress.getLoopbackAddress( ), port );
+        return new InetSocketAddress( s.substring( 0, colon ), port );
+    }
+
+    public SocketAddress address( )
+      { return address; }
+
+    /**
+     * Accept connections until the server is closed.
+     */
+    public void serve( ) throws IOException
+    {
+        try
+        {
+            for( ; ; )
+            {
+                final SocketChannel client = server.accept( );
+                connections.execute( new Runnable( )
+                  {
+                    public void run( )
+                      { handle( client ); }
+                  } );
+            }
+        }
+        catch( ClosedChannelException e )
+          { }  // close was called
+    }
+
+    public void close( ) throws IOException
+    {
+        server.close( );
+        connections.shutdownNow( );
+        if( address instanceof UnixDomainSocketAddress )
+            java.nio.file.Files.deleteIfExists( ( (UnixDomainSocketAddress) address ).getPath( ) );
+    }
+
+    /**
+     * Answer the requests on one connection until QUIT or end of input.
+     * The complete lines that arrive together are all submitted to the
+     * graph's batcher before the first reply is awaited; paths already
+     * in the graph's cache are answered without it.
+     */
+    private void handle( SocketChannel client )
+    {
+        try( SocketChannel c = client;
+             PrintWriter out = new PrintWriter( new BufferedWriter(
+                 Channels.newWriter( c, StandardCharsets.UTF_8 ) ) ) )
+        {
+            LineReader in = new LineReader( Channels.newInputStream( c ) );
+            List<String> burst = new ArrayList<String>( );
+            List<Future<PathResult>> answers = new ArrayList<Future<PathResult>>( );
+            StringBuilder reply = new StringBuilder( );
+            boolean quit = false;
+            while( !quit && in.read( burst ) )
+            {
+                answers.clear( );
+                for( String line : burst )
+                {
+                    if( line.trim( ).equalsIgnoreCase( "QUIT" ) )
+                    {
+                        quit = true;
+                        break;
+                    }
+                    answers.add( submit( line ) );
+                }
+
+                for( int i = 0; i < answers.size( ); i++ )
+                {
+                    reply.setLength( 0 );
+                    answer( burst.get( i ), answers.get( i ), reply );
+                    out.append( reply ).append( '\n' );
+                }
+                out.flush( );
+                burst.clear( );
+            }
+        }
+        catch( IOException e )
+          { }  // Client went away
+        catch( InterruptedException | CancellationException e )
+          { }  // Server closed
+    }
+
+    /**
+     * Submit one request line, or return null if it is malformed.  A
+     * cached path is returned as is; if the batcher has been closed
+     * the answer fails with its IllegalStateException.
+     */
+    private Future<PathResult> submit( String line )
+    {
+        StringTokenizer st = new StringTokenizer( line );
+        if( st.countTokens( ) != 3 )
+            return null;
+        String op = st.nextToken( );
+        if( !op.equalsIgnoreCase( "PATH" ) && !op.equalsIgnoreCase( "DISTANCE" ) )
+            return null;
+
+        String source = st.nextToken( );
+        String target = st.nextToken( );
+        PathResult p = graph.cachedPath( source, target );
+        if( p != null )
+            return CompletableFuture.completedFuture( p );
+        try
+          { return graph.batcher( ).submit( source, target ); }
+        catch( IllegalStateException e )
+          { return CompletableFuture.failedFuture( e ); }
+    }
+
+    /**
+     * Append the reply to one request line, whose answer was
+     * submitted as answer, to reply.
+     */
+    private void answer( String line, Future<PathResult> answer, StringBuilder reply )
+        throws InterruptedException
+    {
+        StringTokenizer st = new StringTokenizer( line );
+        if( st.countTokens( ) != 3 )
+        {
+            reply.append( "ERR expected PATH s t or DISTANCE s t" );
+            return;
+        }
+        String op = st.nextToken( );
+        if( answer == null )
+        {
+            reply.append( "ERR unknown request " ).append( op );
+            return;
+        }
+
+        try
+        {
+            PathResult p = answer.get( );
+            if( !p.reachable( ) )
+            {
+                reply.append( "NONE" );
+                return;
+            }
+            reply.append( "OK " ).append( p.cost );
+            if( op.equalsIgnoreCase( "PATH" ) )
+                for( String name : graph.pathNames( p ) )
+                    reply.append( ' ' ).append( name );
+        }
+        catch( ExecutionException e )
+          { reply.append( "ERR " ).append( e.getCause( ).getMessage( ) ); }
+    }
+}
+
+// Graph class: evaluate shortest paths.
+//
+// CONSTRUCTION: with no parameters, or with the expected number of
+//               vertices and out-edges per vertex to pre-size storage.
+//
+// ******************PUBLIC OPERATIONS**********************
+// void addEdge( String v, String w, double cvw )
+//                              --> Add additional edge
+// void removeEdge( String v, String w )
+//                              --> Remove the edges from v to w
+// void updateEdgeCost( String v, String w, double cvw )
+//                              --> Change the cost of the edges from v to w
+// void readGraphFile( String f )
+//                              --> Add the edges listed in a file
+// void loadExponentGraph( )    --> Build the exponent graph in memory
+// void printPath( String w )   --> Print path after alg is run
+// void printPath( String s, String w )
+//                              --> Print path from the cached tree of s
+// ShortestPathTree shortestPathTree( String s )
+//                              --> Cached dijkstra tree from s
+// PathResult shortestPath( String s, String w )
+//                              --> Cached point-to-point shortest path
+// double distance( String s, String w )
+//                              --> Cost of the shortest path from s to w
+// void unweighted( String s )  --> Single-source unweighted
+// void dijkstra( String s )    --> Single-source weighted
+// PathResult dijkstra( String s, String w, int h )
+//                              --> Cheapest path from s to w with at most h edges
+// List<PathResult> hopFrontier( String s, String w, int h )
+//                              --> Cost-versus-hops Pareto frontier from s to w
+// void dijkstra( Collection<String> s )
+//                              --> Multi-source weighted
+// String nearestSource( String w )
+//                              --> Source w was reached from
+// double[][] distanceTable( List<String> s, List<String> t )
+//                              --> Costs from every s to every t
+// List<PathResult> kShortestPaths( String s, String w, int k )
+//                              --> k cheapest loopless paths from s to w
+// void setDijkstraEngine( DijkstraEngine e )
+//                              --> Choose dijkstra's priority queue
+// void setTieBreak( TieBreak t, double e )
+//                              --> Rule for equal-cost paths, costs within e equal
+// void setHubDegree( int d )   --> Filter edges of vertices with d or more first
+// void pinSource( String s )   --> Keep dijkstra( s ) current under addEdge
+// void setMetrics( GraphMetrics m )
+//                              --> Send per-query counters to m
+// QueryBatcher batcher( )      --> Front end grouping requests by source
+// GraphSnapshot snapshot( )    --> Immutable version for concurrent readers
+// void setBatching( int b, long ns )
+//                              --> Batch size and window of the front end
+// void unpinSource( )          --> Stop maintaining the pinned tree
+// void compact( boolean f )    --> Move edges into CSR, optionally float costs
+// void compact( boolean f, boolean h )
+//                              --> Same, with the CSR held off heap if h
+// void compact( boolean f, boolean h, VertexOrder o )
+//                              --> Same, after renumbering the vertices in order o
+// void reorder( VertexOrder o )
+//                              --> Renumber the vertices for locality
+// int originalId( int v )      --> Insertion-order id of the vertex now numbered v
+// int currentId( int v )       --> Id now held by the vertex inserted as v
+// void negative( String s )    --> Single-source negative weighted
+// void setNegativeStrategy( NegativeStrategy x )
+//                              --> Choose negative's label-correcting strategy
+// void acyclic( String s )     --> Single-source acyclic
+// void parallelAcyclic( String s )
+//                              --> Single-source acyclic, level by level in parallel
+// boolean isMonotoneDag( )     --> True if every edge climbs in vertex number
+// void monotoneDag( String s ) --> Single-source monotone DAG (linear sweep)
+// void verifyMonotoneDag( String s )
+//                              --> Check monotoneDag against dijkstra
+// ******************ERRORS*********************************
+// Some error checking is performed to make sure graph is ok,
+// and to make sure graph satisfies properties needed by each
+// algorithm.  Exceptions are thrown if errors are detected.
+
+public class Graph
+{
+    public static final double INFINITY = Double.MAX_VALUE;
+    public static final int EXPONENT_LIMIT = 1000;
+
+    private VertexTable vertexMap;
+    private List<Vertex> vertices;   // Vertices indexed by id
+    private int expectedDegree;      // Initial capacity of each adjacency list
+
+      // Results of the last shortest path algorithm run, by vertex id;
+      // vertices added since have no entry and count as unreachable.
+    private double[] pathDist;       // Cost
+    private int[] pathPrev;          // Previous vertex id, -1 if none
+    private int[] pathHops;          // Edges on the path
+    private int pathCount;
+
+    private boolean compacted;       // Adjacency lives only in csr
+    private boolean floatCosts;      // csr stores costs as floats
+    private boolean offHeap;         // csr lives outside the Java heap
+    private int[] originalIds;       // Insertion-order id of each id, null if never reordered
+    private int[] currentIds;        // Inverse of originalIds
+
+      // Vertex ids ordered by numeric name and each vertex's position in
+      // that order, or null if the graph is not a monotone DAG.
+    private int[] monotoneOrder;
+    private int[] monotoneRank;
+    private boolean monotoneChecked;
+    private boolean monotoneNonNegative;  // No edge of the monotone DAG costs below 0
+
+    private CsrGraph csr;            // Compact adjacency, built on demand
+    private int[] topoOrder;         // Topological order of vertex ids
+    private int[] topoPosition;      // Position of each vertex id in topoOrder
+    private int[] levelOrder;        // Vertex ids by topological level
+    private int[] levelStart;        // Index in levelOrder of each level, then n
+    private int[] levelOf;           // Level of each vertex id
+    private SearchState state;       // Working storage reused by every query
+    private boolean originsKnown;    // state.origin holds dijkstra's sources
+    private DijkstraEngine engine = DijkstraEngine.AUTO;
+    private NegativeStrategy negativeStrategy = NegativeStrategy.FIFO;
+    private TieBreak tieBreak = TieBreak.FEWEST_HOPS;
+    private int hubDegree = HUB_DEGREE;
+    private double tieEpsilon;       // Costs this close count as equal
+    private GraphMetrics metrics = GraphMetrics.NONE;
+    private QueryBatcher batcher;    // Request front end, created on first use
+    private volatile GraphSnapshot snapshot;  // Latest version for readers, null until asked for
+    private int batchSize = 1024;
+    private long batchWindowNanos = 200000;
+    private DynamicShortestPaths pinned;  // Tree kept current by addEdge
+    private long version;            // Bumped on every change to the edges
+
+      // Recently used shortest-path trees by source id, least recent first
+    private LinkedHashMap<Integer,ShortestPathTree> treeCache =
+        new LinkedHashMap<Integer,ShortestPathTree>( 16, 0.75f, true );
+    private int treeCacheMaxTrees = 16;
+    private long treeCacheMaxBytes = 64L << 20;
+    private long treeCacheBytes;
+    private long treeCacheHits;
+    private long treeCacheMisses;
+
+    private long pathCacheMaxBytes = 16L << 20;  // Budget of each snapshot's path cache
+
+      // Largest edge cost for which AUTO picks Dial's buckets
+    private static final int DIAL_MAX_COST = 1 << 16;
+      // Distances stay exact as whole numbers below 2^53
+    private static final double MAX_WHOLE_DISTANCE = 9007199254740992.0;
+      // Fewest out-edges for which a vertex's edges are filtered
+      // with CsrGraph.improving before they are relaxed
+    private static final int HUB_DEGREE = 32;
+      // Fewest items parallelFor gives a task of its own
+    private static final int PARALLEL_GRAIN = 4096;
+      // Fewest changes a snapshot logs before it compacts
+    private static final int SNAPSHOT_MIN_LOG = 1024;
+
+    public Graph( )
+    {
+        this( 16, 4 );
+    }
+
+    /**
+     * Construct an empty graph whose vertex table and adjacency
+     * lists are sized for the given number of vertices and
+     * out-edges per vertex.
+     */
+    public Graph( int expectedVertices, int expectedDegree )
+    {
+        vertices = new ArrayList<Vertex>( expectedVertices );
+        vertexMap = new VertexTable( vertices, expectedVertices );
+        this.expectedDegree = expectedDegree;
+    }
+
+    /**
+     * Add a new edge to the graph.
+     */
+    public void addEdge( String sourceName, String destName, double cost )
+    {
+        if( pinned != null && cost < 0 )
+            throw new GraphException( "Graph has negative edges" );
+
+        thaw( );
+        Vertex v = getVertex( sourceName );
+        Vertex w = getVertex( destName );
+        v.adj.add( new Edge( w, cost ) );
+        graphChanged( );
+        snapshotChanged( v.id, w.id, false, cost, 1 );
+
+        if( pinned != null )
+            pinned.edgeAdded( v, w, cost );
+    }
+
+    /**
+     * Remove every edge from sourceName to destName.
+     * The vertices stay in the graph.
+     */
+    public void removeEdge( String sourceName, String destName )
+    {
+        thaw( );
+        Vertex v = vertexMap.get( sourceName );
+        Vertex w = vertexMap.get( destName );
+        boolean found = false;
+        if( v != null && w != null )
+            for( Iterator<Edge> itr = v.adj.iterator( ); itr.hasNext( ); )
+                if( itr.next( ).dest == w )
+                {
+                    itr.remove( );
+                    found = true;
+                }
+        if( !found )
+            throw new NoSuchElementException( "Edge not found" );
+        graphChanged( );
+        snapshotChanged( v.id, w.id, true, 0, 0 );
+
+        if( pinned != null )
+            pinned.edgesRemoved( v, w );
+    }
+
+    /**
+     * Change the cost of every edge from sourceName to destName.
+     */
+    public void updateEdgeCost( String sourceName, String destName, double cost )
+    {
+        if( pinned != null && cost < 0 )
+            throw new GraphException( "Graph has negative edges" );
+
+        thaw( );
+        Vertex v = vertexMap.get( sourceName );
+        Vertex w = vertexMap.get( destName );
+        boolean found = false, raised = false, lowered = false;
+        int copies = 0;
+        if( v != null && w != null )
+            for( Edge e : v.adj )
+                if( e.dest == w )
+                {
+                    found = true;
+                    copies++;
+                    raised |= cost > e.cost;
+                    lowered |= cost < e.cost;
+                    e.cost = cost;
+                }
+        if( !found )
+            throw new NoSuchElementException( "Edge not found" );
+        graphChanged( );
+        snapshotChanged( v.id, w.id, true, cost, copies );
+
+        if( pinned != null && raised )
+            pinned.edgeWorsened( v, w );
+        else if( pinned != null && lowered )
+            pinned.edgeImproved( v, w, cost );
+    }
+
+    /**
+     * Run dijkstra from startName and keep its shortest-path tree
+     * current as edges are added, removed or change cost, so that
+     * later dijkstra calls from the same start only copy the tree
+     * out.  Negative edges are rejected while a source is pinned.
+     */
+    public void pinSource( String startName )
+    {
+        pinned = null;
+        dijkstra( startName );
+        thaw( );
+        pinned = new DynamicShortestPaths( vertices, vertexMap.get( startName ),
+                                           state.dist, state.prev, state.hops );
+    }
+
+    /**
+     * Stop maintaining the pinned shortest-path tree.
+     */
+    public void unpinSource( )
+    {
+        pinned = null;
+    }
+
+    /**
+     * Discard everything derived from the current edge set.
+     */
+    private void graphChanged( )
+    {
+        version++;
+        clearCaches( );
+        monotoneChecked = false;
+        monotoneOrder = null;
+        monotoneRank = null;
+        csr = null;
+        topoOrder = null;
+        topoPosition = null;
+        levelOrder = null;
+        levelStart = null;
+        levelOf = null;
+    }
+
+    /**
+     * Drop the cached trees and paths.
+     */
+    private void clearCaches( )
+    {
+        treeCache.clear( );
+        treeCacheBytes = 0;
+        GraphSnapshot s = snapshot;
+        if( s != null )
+            s.clearPaths( );
+    }
+
+    /**
+     * Return the latest immutable version of the graph, which may be
+     * queried from any thread while this Graph goes on changing.
+     * The first call must not overlap a change to the graph; from
+     * then on every change makes a new version.
+     */
+    public GraphSnapshot snapshot( )
+    {
+        GraphSnapshot s = snapshot;
+        if( s == null )
+            synchronized( this )
+            {
+                if( ( s = snapshot ) == null )
+                    snapshot = s = new GraphSnapshot( this, version, csr( ) );
+            }
+        return s;
+    }
+
+    /**
+     * Make the next snapshot after a change: if replace, every edge
+     * from -> to was removed, then copies edges of the given cost
+     * were added.  Once the change log outgrows an eighth of the
+     * base edges the snapshot is rebuilt on a fresh CSR instead.
+     */
+    private void snapshotChanged( int from, int to, boolean replace, double cost, int copies )
+    {
+        GraphSnapshot s = snapshot;
+        if( s == null )
+            return;
+        if( s.logSize( ) >= Math.max( SNAPSHOT_MIN_LOG, s.baseEdges( ) / 8 ) )
+            snapshot = new GraphSnapshot( this, version, csr( ) );
+        else
+            snapshot = s.with( version, vertices, from, to, replace, cost, copies );
+    }
+
+    /**
+     * Return the compact adjacency of the current graph, building it
+     * if the graph changed since it was last built.  While snapshots
+     * are in use the latest one's CSR is the current graph's, so
+     * searches on the Graph and on the snapshot share it.
+     */
+    private CsrGraph csr( )
+    {
+        if( csr == null )
+        {
+            GraphSnapshot s = snapshot;
+            if( s != null && s.version == version )
+                return csr = s.csr( );
+            csr = CsrGraph.build( vertices, floatCosts );
+            if( offHeap )
+                csr = csr.offHeap( );
+        }
+        return csr;
+    }
+
+    /**
+     * Compute (once per edge set) a topological order of the vertices
+     * using Kahn's algorithm; the order array doubles as the queue.
+     * Throws GraphException if the graph has a cycle.
+     */
+    private int[] topologicalOrder( )
+    {
+        if( topoOrder != null )
+            return topoOrder;
+
+        CsrGraph g = csr( );
+        int n = g.vertices.length;
+        int[] indegree = new int[ n ];
+        int[] order = new int[ n ];
+        int[] position = new int[ n ];
+
+          // Compute the indegrees
+        for( int e = 0; e < g.edges( ); e++ )
+            indegree[ g.dest( e ) ]++;
+
+          // Enqueue vertices of indegree zero
+        int tail = 0;
+        for( int v = 0; v < n; v++ )
+            if( indegree[ v ] == 0 )
+                order[ tail++ ] = v;
+
+        for( int head = 0; head < tail; head++ )
+        {
+            int v = order[ head ];
+            position[ v ] = head;
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+                if( --indegree[ g.dest( e ) ] == 0 )
+                    order[ tail++ ] = g.dest( e );
+        }
+
+        if( tail != n )
+            throw new GraphException( "Graph has a cycle!" );
+
+        topoPosition = position;
+        return topoOrder = order;
+    }
+
+    /**
+     * Driver routine to handle unreachables and print total cost.
+     * It calls recursive routine to print shortest path to
+     * destNode after a shortest path algorithm has run.
+     * 
+     * This method has been edited from its original version for the 
+     * purpose of implementing the Assignment's goals.
+     */
+    public void printPath( String destName, PrintWriter outfile )
+    {
+        Vertex w = vertexMap.get( destName );
+        if( w == null )
+            throw new NoSuchElementException( "Destination vertex not found" );
+        else if( w.id >= pathCount || pathDist[ w.id ] == INFINITY )
+            outfile.println( destName + " is unreachable" );
+        else
+        {
+            outfile.print( "(Cost is: " + pathDist[ w.id ] + ") " );
+            printPath( w.id, outfile );
+            outfile.println( );
+        }
+    }
+
+    /**
+     * Print the shortest path from startName to destName in the same
+     * form as printPath, answered from the cached shortest-path tree
+     * of startName (computed with dijkstra on a miss).
+     */
+    public void printPath( String startName, String destName, PrintWriter outfile )
+    {
+        ShortestPathTree t = shortestPathTree( startName );
+        Vertex w = vertexMap.get( destName );
+        if( w == null )
+            throw new NoSuchElementException( "Destination vertex not found" );
+
+        printPath( t.result( w.id ), destName, outfile );
+    }
+
+    /**
+     * Print p, the path to destName, in the same form as printPath.
+     */
+    private void printPath( PathResult p, String destName, PrintWriter outfile )
+    {
+        if( !p.reachable( ) )
+            outfile.println( destName + " is unreachable" );
+        else
+        {
+            outfile.print( "(Cost is: " + p.cost + ") " );
+            for( int i = 0; i < p.length; i++ )
+            {
+                if( i > 0 )
+                    outfile.print( " to " );
+                outfile.print( vertices.get( p.vertices[ i ] ).name );
+            }
+            outfile.println( );
+        }
+    }
+
+    /**
+     * Return the shortest-path tree from startName, from the tree
+     * cache if present; otherwise run dijkstra and cache the result,
+     * evicting least recently used trees beyond the cache limits.
+     * On a monotone DAG with no negative edges and no tie epsilon,
+     * monotoneDag stands in for dijkstra, finding the same tree in
+     * one sweep; it would accept the negative edges dijkstra rejects.
+     */
+    public ShortestPathTree shortestPathTree( String startName )
+    {
+        Vertex start = vertexMap.get( startName );
+        if( start == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+
+        ShortestPathTree t = treeCache.get( start.id );
+        if( t != null )
+        {
+            treeCacheHits++;
+            return t;
+        }
+
+        treeCacheMisses++;
+        if( pinned == null && tieEpsilon == 0 && isMonotoneDag( ) && monotoneNonNegative )
+            monotoneDag( startName );   // Same tree as dijkstra, in one sweep
+        else
+            dijkstra( startName );
+        t = new ShortestPathTree( start.id, version, pathDist, pathPrev, pathCount );
+        treeCache.put( start.id, t );
+        treeCacheBytes += t.bytes( );
+
+        Iterator<ShortestPathTree> itr = treeCache.values( ).iterator( );
+        while( treeCache.size( ) > 1 && ( treeCache.size( ) > treeCacheMaxTrees
+                                         || treeCacheBytes > treeCacheMaxBytes ) )
+        {
+            treeCacheBytes -= itr.next( ).bytes( );
+            itr.remove( );
+        }
+        return t;
+    }
+
+    /**
+     * Bound the tree cache by number of trees and approximate bytes.
+     */
+    public void setTreeCacheLimits( int maxTrees, long maxBytes )
+    {
+        treeCacheMaxTrees = maxTrees;
+        treeCacheMaxBytes = maxBytes;
+        treeCache.clear( );
+        treeCacheBytes = 0;
+    }
+
+    public long treeCacheHits( )
+      { return treeCacheHits; }
+
+    public long treeCacheMisses( )
+      { return treeCacheMisses; }
+
+    /**
+     * Return the shortest path from sourceName to targetName, asked
+     * of the latest snapshot; see GraphSnapshot.shortestPath.  Any
+     * number of threads may query while the graph is being changed.
+     */
+    public PathResult shortestPath( String sourceName, String targetName )
+    {
+        return snapshot( ).shortestPath( sourceName, targetName );
+    }
+
+    /**
+     * Return the shortest paths from sourceName to each of
+     * targetNames, asked of the latest snapshot with one search; an
+     * unknown target gets null.
+     */
+    public PathResult[] shortestPaths( String sourceName, List<String> targetNames )
+    {
+        return snapshot( ).shortestPaths( sourceName, targetNames );
+    }
+
+    /**
+     * Return the shortest path from sourceName to targetName if the
+     * latest snapshot has it cached, else null.  This never searches
+     * and takes no lock.
+     */
+    public PathResult cachedPath( String sourceName, String targetName )
+    {
+        return snapshot( ).cachedPath( sourceName, targetName );
+    }
+
+    /**
+     * Return the cost of the shortest path from sourceName to
+     * targetName, INFINITY if there is none.
+     */
+    public double distance( String sourceName, String targetName )
+    {
+        return shortestPath( sourceName, targetName ).cost;
+    }
+
+    /**
+     * Return the names of the vertices on p, in order.  A path found
+     * on a snapshot, as shortestPath, the batcher and the server's
+     * answers are, is named from that snapshot's vertices; any other
+     * from the current ones.
+     */
+    public List<String> pathNames( PathResult p )
+    {
+        List<String> names = new ArrayList<String>( p.length );
+        for( int i = 0; i < p.length; i++ )
+            names.add( ( p.names != null ? p.names[ p.vertices[ i ] ]
+                                         : vertices.get( p.vertices[ i ] ) ).name );
+        return names;
+    }
+
+    /**
+     * Bound the point-to-point cache of each snapshot to about
+     * maxBytes.
+     */
+    public void setPathCacheLimit( long maxBytes )
+    {
+        pathCacheMaxBytes = maxBytes;
+        GraphSnapshot s = snapshot;
+        if( s != null )
+            s.clearPaths( );
+    }
+
+    long pathCacheLimit( )
+      { return pathCacheMaxBytes; }
+
+    /**
+     * If vertexName is not present, add it to vertexMap.
+     * In either case, return the Vertex.
+     */
+    private Vertex getVertex( String vertexName )
+    {
+        Vertex v = vertexMap.get( vertexName );
+        if( v == null )
+        {
+            v = new Vertex( vertexName, vertices.size( ), expectedDegree );
+            vertices.add( v );
+            vertexMap.put( v );
+        }
+        return v;
+    }
+
+    /**
+     * Recursive routine to print shortest path to dest
+     * after running shortest path algorithm to a file. The path
+     * is known to exist.
+     * 
+     * This method has been edited from the original version
+     * for the purpose of the assignment
+     */
+    private void printPath( int dest , PrintWriter outfile)
+    {
+        if( pathPrev[ dest ] != -1 )
+        {
+            printPath( pathPrev[ dest ], outfile );
+            outfile.print( " to " );
+        }
+        outfile.print( vertices.get( dest ).name );
+    }
+
+    /**
+     * Return the working storage, cleared for a query over n vertices.
+     */
+    private SearchState clearState( int n )
+    {
+        if( state == null || state.capacity( ) < n )
+            state = new SearchState( Math.max( n, 16 ) );
+        state.clear( n );
+        if( tieEpsilon > 0 )
+            state.clearChoices( n );
+        state.stats.clear( );
+        state.started = System.nanoTime( );
+        originsKnown = false;
+        return state;
+    }
+
+    /**
+     * Send the counters of the query just run to the metrics and,
+     * while recording, to Flight Recorder.
+     */
+    private void report( String algorithm, int source, SearchState s )
+    {
+        report( algorithm, source, source < 0 ? null : vertices.get( source ), s );
+    }
+
+    /**
+     * As above, naming the source vertex, so that a snapshot query
+     * need not look it up in the changing vertex list.
+     */
+    private void report( String algorithm, int source, Vertex v, SearchState s )
+    {
+        QueryStats q = s.stats;
+        q.algorithm = algorithm;
+        q.source = source;
+        q.nanos = System.nanoTime( ) - s.started;
+        metrics.queryCompleted( q );
+
+        if( QueryEvent.TYPE.isEnabled( ) )
+        {
+            QueryEvent event = new QueryEvent( );
+            event.algorithm = algorithm;
+            event.source = v == null ? null : v.name;
+            event.queryTime = q.nanos;
+            event.settled = q.settled;
+            event.relaxed = q.relaxed;
+            event.pushes = q.pushes;
+            event.pops = q.pops;
+            event.stalePops = q.stalePops;
+            event.cycleChecks = q.cycleChecks;
+            event.commit( );
+        }
+    }
+
+    /**
+     * Return the front end that groups point-to-point requests by
+     * source, creating it on first use.
+     */
+    public synchronized QueryBatcher batcher( )
+    {
+        if( batcher == null )
+        {
+            snapshot( );   // before the worker can ask for it
+            batcher = new QueryBatcher( this, batchSize, batchWindowNanos );
+        }
+        return batcher;
+    }
+
+    /**
+     * Set the largest batch and the longest wait for a batch to
+     * fill; the current batcher, if any, is closed.
+     */
+    public void setBatching( int maxBatch, long windowNanos )
+    {
+        if( maxBatch < 1 || windowNanos < 0 )
+            throw new IllegalArgumentException( "Bad batch size or window" );
+
+        QueryBatcher old;
+        synchronized( this )
+        {
+            batchSize = maxBatch;
+            batchWindowNanos = windowNanos;
+            old = batcher;
+            batcher = null;
+        }
+        if( old != null )   // Outside the lock: its worker may be waiting for it
+            old.close( );
+    }
+
+    /**
+     * Send per-query counters to m; GraphMetrics.NONE turns them off.
+     */
+    public void setMetrics( GraphMetrics m )
+    {
+        metrics = m == null ? GraphMetrics.NONE : m;
+    }
+
+    /**
+     * Copy the results of the last query, indexed by vertex id,
+     * to where printPath and callers read them.
+     */
+    private void publish( double[] dist, int[] prev, int[] hops )
+    {
+        int n = vertices.size( );
+        if( pathDist == null || pathDist.length < n )
+        {
+            int capacity = Math.max( n, 16 );
+            pathDist = new double[ capacity ];
+            pathPrev = new int[ capacity ];
+            pathHops = new int[ capacity ];
+        }
+        System.arraycopy( dist, 0, pathDist, 0, n );
+        System.arraycopy( prev, 0, pathPrev, 0, n );
+        System.arraycopy( hops, 0, pathHops, 0, n );
+        pathCount = n;
+    }
+
+    /**
+     * Move the adjacency lists into the CSR arrays and drop the
+     * per-edge objects, leaving each vertex with just its name and
+     * id.  With floatCosts the costs are stored as floats, rounded to
+     * about 7 significant digits; this rounding is kept if the lists
+     * are rebuilt.  The lists are rebuilt by the next change to the
+     * edges or by pinSource.
+     */
+    public void compact( boolean floatCosts )
+      { compact( floatCosts, offHeap ); }
+
+    /**
+     * Compact as above, and with offHeap keep the CSR arrays (and
+     * their transpose) in a direct buffer outside the Java heap, so
+     * the heap holds only the vertices and the per-query arrays.
+     * The setting also applies when the CSR is rebuilt after a
+     * change.  The buffer is freed once the CSR is discarded and
+     * collected.
+     */
+    public void compact( boolean floatCosts, boolean offHeap )
+    {
+        thaw( );
+        boolean rounded = floatCosts != this.floatCosts;
+        if( rounded || offHeap != this.offHeap )
+        {
+            this.floatCosts = floatCosts;
+            this.offHeap = offHeap;
+            graphChanged( );
+            if( snapshot != null )
+                snapshot = new GraphSnapshot( this, version, csr( ) );
+        }
+
+        csr( );
+        if( rounded && pinned != null )  // tree was built from the old costs
+            pinSource( pinned.source.name );
+        for( Vertex v : vertices )
+            v.adj = null;
+        compacted = true;
+    }
+
+    /**
+     * Rebuild the adjacency lists after compact.
+     */
+    private void thaw( )
+    {
+        if( !compacted )
+            return;
+
+        CsrGraph g = csr;
+        for( Vertex v : vertices )
+        {
+            int degree = g.start( v.id + 1 ) - g.start( v.id );
+            v.adj = new ArrayList<Edge>( Math.max( degree, expectedDegree ) );
+            for( int e = g.start( v.id ); e < g.start( v.id + 1 ); e++ )
+                v.adj.add( new Edge( vertices.get( g.dest( e ) ), g.cost( e ) ) );
+        }
+        compacted = false;
+    }
+
+    /**
+     * Compact as above after renumbering the vertices in the given
+     * order, so that vertices a search reaches together sit together
+     * in the CSR arrays and in every per-vertex array.
+     */
+    public void compact( boolean floatCosts, boolean offHeap, VertexOrder order )
+    {
+        reorder( order );
+        compact( floatCosts, offHeap );
+    }
+
+    /**
+     * Renumber the vertices in the given order.  Names are kept, so
+     * lookups and printed paths are unchanged; published results are
+     * carried over to the new ids, the pinned tree and the snapshot
+     * are rebuilt, and originalId and currentId translate ids from
+     * before the first reorder.  Snapshots already handed out keep
+     * their own vertices and are unaffected.
+     */
+    public void reorder( VertexOrder order )
+    {
+        CsrGraph g = csr( );
+        int n = g.vertices.length;
+        int[] newOrder;                      // Old id of each new id
+        if( order == VertexOrder.INSERTION )
+        {
+            newOrder = new int[ n ];
+            for( int i = 0; i < n; i++ )
+                newOrder[ i ] = currentId( i );
+        }
+        else
+            newOrder = vertexOrder( g, order );
+
+        int[] newId = new int[ n ];
+        int[] original = new int[ n ];
+        int[] current = new int[ n ];
+        List<Vertex> vs = new ArrayList<Vertex>( n );
+        for( int i = 0; i < n; i++ )
+        {
+            int v = newOrder[ i ];
+            newId[ v ] = i;
+            original[ i ] = originalId( v );
+            current[ original[ i ] ] = i;
+            int degree = g.start( v + 1 ) - g.start( v );
+            vs.add( new Vertex( g.vertices[ v ].name, i, Math.max( degree, expectedDegree ) ) );
+        }
+        for( int i = 0; i < n; i++ )
+        {
+            int v = newOrder[ i ];
+            List<Edge> adj = vs.get( i ).adj;
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+                adj.add( new Edge( vs.get( newId[ g.dest( e ) ] ), g.cost( e ) ) );
+        }
+
+        boolean published = pathCount == n;
+        double[] dist = published ? pathDist.clone( ) : null;
+        int[] prev = published ? pathPrev.clone( ) : null;
+        int[] hops = published ? pathHops.clone( ) : null;
+        boolean wasCompacted = compacted;
+        String pinnedName = pinned == null ? null : pinned.source.name;
+        vertices.clear( );
+        vertices.addAll( vs );
+        vertexMap = new VertexTable( vertices, n );
+        for( Vertex v : vertices )
+            vertexMap.put( v );
+        originalIds = original;
+        currentIds = current;
+        compacted = false;
+        originsKnown = false;
+        pinned = null;
+        graphChanged( );
+
+        if( wasCompacted )
+        {
+            csr( );
+            for( Vertex v : vertices )
+                v.adj = null;
+            compacted = true;
+        }
+        if( snapshot != null )
+            snapshot = new GraphSnapshot( this, version, csr( ) );
+        if( pinnedName != null )
+            pinSource( pinnedName );
+
+          // Carry the published results over to the new ids
+        pathCount = published ? n : 0;
+        for( int v = 0; published && v < n; v++ )
+        {
+            pathDist[ newId[ v ] ] = dist[ v ];
+            pathPrev[ newId[ v ] ] = prev[ v ] == -1 ? -1 : newId[ prev[ v ] ];
+            pathHops[ newId[ v ] ] = hops[ v ];
+        }
+    }
+
+    /**
+     * Return the id before the first reorder of the vertex now
+     * numbered id.  Vertices added since the last reorder keep
+     * their ids.
+     */
+    public int originalId( int id )
+    {
+        return originalIds == null || id >= originalIds.length ? id : originalIds[ id ];
+    }
+
+    /**
+     * Return the id now held by the vertex numbered originalId
+     * before the first reorder.
+     */
+    public int currentId( int originalId )
+    {
+        return currentIds == null || originalId >= currentIds.length ? originalId : currentIds[ originalId ];
+    }
+
+    /**
+     * Return the ids of g listed in the given order: entry i is the
+     * id that becomes i.  Edges count in both directions.
+     */
+    private static int[] vertexOrder( CsrGraph g, VertexOrder order )
+    {
+        int n = g.vertices.length;
+        CsrGraph r = g.reverse( );
+        int[] degree = new int[ n ];
+        for( int v = 0; v < n; v++ )
+            degree[ v ] = g.start( v + 1 ) - g.start( v ) + r.start( v + 1 ) - r.start( v );
+
+        int[] result = new int[ n ];
+        long[] keys = new long[ n ];
+        if( order == VertexOrder.DEGREE )
+        {
+            for( int v = 0; v < n; v++ )
+                keys[ v ] = (long) ( Integer.MAX_VALUE - degree[ v ] ) << 32 | v;
+            Arrays.sort( keys );
+            for( int i = 0; i < n; i++ )
+                result[ i ] = (int) keys[ i ];
+            return result;
+        }
+
+          // Each breadth-first search starts at the first unvisited
+          // root: in id order for BFS, by increasing degree for RCM
+        boolean rcm = order == VertexOrder.RCM;
+        int[] roots = new int[ n ];
+        for( int v = 0; v < n; v++ )
+            keys[ v ] = rcm ? (long) degree[ v ] << 32 | v : v;
+        Arrays.sort( keys );
+        for( int i = 0; i < n; i++ )
+            roots[ i ] = (int) keys[ i ];
+
+        boolean[] seen = new boolean[ n ];
+        int tail = 0;
+        for( int root : roots )
+        {
+            if( seen[ root ] )
+                continue;
+            seen[ root ] = true;
+            result[ tail++ ] = root;
+            for( int head = tail - 1; head < tail; head++ )
+            {
+                int v = result[ head ];
+                int first = tail;
+                tail = visitNeighbors( g, v, seen, result, tail );
+                tail = visitNeighbors( r, v, seen, result, tail );
+                if( rcm )
+                {
+                    for( int i = first; i < tail; i++ )
+                        keys[ i - first ] = (long) degree[ result[ i ] ] << 32 | result[ i ];
+                    Arrays.sort( keys, 0, tail - first );
+                    for( int i = first; i < tail; i++ )
+                        result[ i ] = (int) keys[ i - first ];
+                }
+            }
+        }
+
+        if( rcm )
+            for( int i = 0, j = n - 1; i < j; i++, j-- )
+            {
+                int t = result[ i ];
+                result[ i ] = result[ j ];
+                result[ j ] = t;
+            }
+        return result;
+    }
+
+    /**
+     * Append the unseen out-neighbors of v in g to order, marking
+     * them seen; return the new length of order.
+     */
+    private static int visitNeighbors( CsrGraph g, int v, boolean[] seen, int[] order, int tail )
+    {
+        for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+        {
+            int w = g.dest( e );
+            if( !seen[ w ] )
+            {
+                seen[ w ] = true;
+                order[ tail++ ] = w;
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Single-source unweighted shortest-path algorithm.
+     */
+    public void unweighted( String startName )
+    {
+        Vertex start = vertexMap.get( startName );
+        if( start == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        double[] dist = s.dist;
+        int[] prev = s.prev;
+        IntQueue q = s.queue;
+
+        q.add( start.id ); dist[ start.id ] = 0;
+        long pushes = 1, pops = 0, relaxed = 0;
+
+        while( !q.isEmpty( ) )
+        {
+            int v = q.remove( );
+            pops++;
+
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+            {
+                int w = g.dest( e );
+                relaxed++;
+                if( dist[ w ] == INFINITY )
+                {
+                    dist[ w ] = dist[ v ] + 1;
+                    prev[ w ] = v;
+                    q.add( w );
+                    pushes++;
+                }
+            }
+        }
+        s.stats.settled = s.stats.pops = pops;
+        s.stats.pushes = pushes;
+        s.stats.relaxed = relaxed;
+        report( "unweighted", start.id, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Choose the priority queue dijkstra runs on.
+     * DIAL and RADIX_HEAP need whole-number edge costs, and DIAL
+     * costs below Integer.MAX_VALUE.
+     */
+    public void setDijkstraEngine( DijkstraEngine e )
+    {
+        engine = e;
+    }
+
+    /**
+     * Choose how dijkstra, dijkstra2, monotoneDag and snapshot queries
+     * pick among paths of equal cost.  The rule is folded into one tie
+     * key per vertex, which every engine's queue orders equal costs
+     * by, so each vertex is settled once and the result does not
+     * depend on the engine.  With a positive epsilon the least costs
+     * are found first; then each vertex keeps, among the vertices
+     * settled before it, the predecessor with the lowest tie key whose
+     * path costs at most epsilon more than the least, and the cost
+     * reported is that of the path kept.
+     */
+    public void setTieBreak( TieBreak rule, double epsilon )
+    {
+        if( !( epsilon >= 0 ) )
+            throw new IllegalArgumentException( "Tie epsilon must be non-negative" );
+        tieBreak = rule;
+        tieEpsilon = epsilon;
+        clearCaches( );
+    }
+
+    public TieBreak tieBreak( )
+      { return tieBreak; }
+
+    public double tieEpsilon( )
+      { return tieEpsilon; }
+
+    /**
+     * Set the fewest out-edges for which dijkstra, negative and
+     * acyclic first filter a vertex's edges down to those that may
+     * improve, then relax only those.  Integer.MAX_VALUE relaxes
+     * every edge one by one.
+     */
+    public void setHubDegree( int degree )
+    {
+        if( degree < 1 )
+            throw new IllegalArgumentException( "Hub degree must be positive" );
+        hubDegree = degree;
+    }
+
+    /**
+     * Return s.hub, grown to hold at least count edges.
+     */
+    private static int[] hubEdges( SearchState s, int count )
+    {
+        if( s.hub == null || s.hub.length < count )
+            s.hub = new int[ Math.max( count, 2 * HUB_DEGREE ) ];
+        return s.hub;
+    }
+
+    /**
+     * Tie key under rule of a path reaching a vertex from v, which has
+     * h edges; lower is preferred.  zeroCost is true for an edge that
+     * adds nothing to the cost.  The key of such a path is above v's
+     * own, so a settled vertex is never offered a better one.  Ids
+     * and edge counts fit in 31 bits.
+     */
+    static long tieKey( TieBreak rule, int v, int h, boolean zeroCost )
+    {
+        long fewestHops = (long) ( h + 1 ) << 31 | v;
+        if( rule == TieBreak.FEWEST_HOPS )
+            return fewestHops;
+        return zeroCost ? ( 1L << 62 ) + fewestHops : (long) v << 31 | ( h + 1 );
+    }
+
+    /**
+     * Return the engine a query would run on: the chosen one, or for
+     * AUTO the best one the edge costs allow.
+     */
+    public DijkstraEngine dijkstraEngine( )
+    {
+        return dijkstraEngine( csr( ) );
+    }
+
+    private DijkstraEngine dijkstraEngine( CsrGraph g )
+    {
+        if( engine != DijkstraEngine.AUTO )
+            return engine;
+        if( !g.wholeCosts || g.maxCost * g.vertices.length >= MAX_WHOLE_DISTANCE )
+            return DijkstraEngine.BINARY_HEAP;
+        return g.maxCost <= DIAL_MAX_COST ? DijkstraEngine.DIAL : DijkstraEngine.RADIX_HEAP;
+    }
+
+    /**
+     * Return the cleared priority queue for the current engine.
+     */
+    private VertexQueue queue( CsrGraph g, SearchState s )
+    {
+        DijkstraEngine e = dijkstraEngine( g );
+        if( e == DijkstraEngine.BINARY_HEAP )
+            return s.heap;
+        if( !g.wholeCosts )
+            throw new GraphException( e + " needs whole-number edge costs" );
+
+        if( e == DijkstraEngine.DIAL )
+        {
+            if( g.maxCost > Integer.MAX_VALUE - 1 )
+                throw new GraphException( e + " needs edge costs below " + Integer.MAX_VALUE );
+            int maxCost = (int) g.maxCost;
+            if( s.dial == null || s.dial.maxCost( ) != maxCost )
+                s.dial = new DialQueue( s.dist, s.tie, maxCost );
+            return s.dial;
+        }
+        if( s.radix == null )
+            s.radix = new RadixHeap( s.dist, s.tie );
+        return s.radix;
+    }
+
+    /**
+     * Single-source weighted shortest-path algorithm.
+     * Among equal-cost paths the one setTieBreak prefers is kept.
+     * The priority queue is chosen by setDijkstraEngine.
+     */
+    public void dijkstra( String startName )
+    {
+        Vertex start = vertexMap.get( startName );
+        if( start == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+
+        if( pinned != null && pinned.source == start
+            && tieBreak == TieBreak.FEWEST_HOPS && tieEpsilon == 0 )
+        {
+              // Every vertex the tree reaches has start as its source
+            int n = vertices.size( );
+            if( state == null || state.capacity( ) < n )
+                state = new SearchState( Math.max( n, 16 ) );
+            state.stats.clear( );
+            state.started = System.nanoTime( );
+            publish( pinned.dist, pinned.prev, pinned.hops );
+            Arrays.fill( state.origin, 0, n, start.id );
+            originsKnown = true;
+            report( "dijkstra", start.id, state );
+            return;
+        }
+
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        VertexQueue pq = queue( g, s );
+        seed( s, pq, start.id );
+        int settled = runDijkstra( g, s, pq, 0 );
+        if( tieEpsilon > 0 )
+            choosePaths( g, s, settled, null );
+        originsKnown = true;
+        report( "dijkstra", start.id, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Run dijkstra from source on g, a snapshot's CSR, in s, which
+     * belongs to the calling thread; if targets is positive, stop
+     * once that many vertices marked in s.target are settled.  The
+     * engine, hub filter, tie rule and metrics are this graph's, but
+     * nothing is published, so any thread may call this while the
+     * graph is being changed.
+     */
+    void search( CsrGraph g, SearchState s, int source, int targets )
+    {
+        int n = g.vertices.length;
+        s.clear( n );
+        if( tieEpsilon > 0 )
+            s.clearChoices( n );
+        s.stats.clear( );
+        s.started = System.nanoTime( );
+        VertexQueue pq = queue( g, s );
+        seed( s, pq, source );
+        int settled = runDijkstra( g, s, pq, targets );
+        if( tieEpsilon > 0 )
+            choosePaths( g, s, settled, null );
+        report( "snapshot", source, g.vertices[ source ], s );
+    }
+
+    /**
+     * Multi-source weighted shortest-path algorithm: every vertex
+     * gets the cost of its path from the nearest of the sources, as
+     * if a super-source joined them all with zero-cost edges.  The
+     * source each vertex was reached from is given by nearestSource.
+     */
+    public void dijkstra( Collection<String> sourceNames )
+    {
+        if( sourceNames.isEmpty( ) )
+            throw new NoSuchElementException( "No start vertex given" );
+
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        VertexQueue pq = queue( g, s );
+        for( String name : sourceNames )
+        {
+            Vertex start = vertexMap.get( name );
+            if( start == null )
+                throw new NoSuchElementException( "Start vertex not found" );
+            seed( s, pq, start.id );
+        }
+        int settled = runDijkstra( g, s, pq, 0 );
+        if( tieEpsilon > 0 )
+            choosePaths( g, s, settled, null );
+        originsKnown = true;
+        report( "dijkstra", -1, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Return the name of the source the last dijkstra run reached
+     * vertexName from, or null if it was unreachable.
+     */
+    public String nearestSource( String vertexName )
+    {
+        Vertex v = vertexMap.get( vertexName );
+        if( v == null )
+            throw new NoSuchElementException( "Vertex not found" );
+        if( !originsKnown )
+            throw new GraphException( "No dijkstra results to report sources from" );
+
+        return pathDist[ v.id ] == INFINITY ? null : vertices.get( state.origin[ v.id ] ).name;
+    }
+
+    /**
+     * Return the matrix of shortest-path costs from each of
+     * sourceNames (rows) to each of targetNames (columns), INFINITY
+     * where there is no path.  One dijkstra search is run per source,
+     * or per target over the reversed edges if there are fewer
+     * targets, and each search stops once it has settled every
+     * vertex on the other side.
+     */
+    public double[][] distanceTable( List<String> sourceNames, List<String> targetNames )
+    {
+        int[] sources = vertexIds( sourceNames );
+        int[] targets = vertexIds( targetNames );
+        double[][] table = new double[ sources.length ][ targets.length ];
+
+        boolean forward = sources.length <= targets.length;
+        int[] roots = forward ? sources : targets;
+        int[] others = forward ? targets : sources;
+        CsrGraph g = forward ? csr( ) : csr( ).reverse( );
+
+        SearchState s = clearState( g.vertices.length );
+        int distinct = 0;
+        for( int v : others )
+            if( !s.target[ v ] )
+            {
+                s.target[ v ] = true;
+                distinct++;
+            }
+
+        try
+        {
+            for( int i = 0; i < roots.length; i++ )
+            {
+                s.clear( g.vertices.length );
+                VertexQueue pq = queue( g, s );
+                seed( s, pq, roots[ i ] );
+                runDijkstra( g, s, pq, distinct );
+
+                for( int j = 0; j < others.length; j++ )
+                    if( forward )
+                        table[ i ][ j ] = s.dist[ others[ j ] ];
+                    else
+                        table[ j ][ i ] = s.dist[ others[ j ] ];
+            }
+            report( "distanceTable", -1, s );
+        }
+        finally
+        {
+            for( int v : others )
+                s.target[ v ] = false;
+            originsKnown = false;
+        }
+        return table;
+    }
+
+    /**
+     * Return the cheapest path from sourceName to targetName that
+     * uses at most maxHops edges; see hopFrontier.
+     */
+    public PathResult dijkstra( String sourceName, String targetName, int maxHops )
+    {
+        List<PathResult> frontier = hopFrontier( sourceName, targetName, maxHops );
+        return frontier.isEmpty( ) ? new PathResult( INFINITY, null, 0 )
+                                   : frontier.get( frontier.size( ) - 1 );
+    }
+
+    /**
+     * Return the cost-versus-hops Pareto frontier of paths from
+     * sourceName to targetName with at most maxHops edges: one path
+     * for each hop count at which the cost drops, by increasing hops
+     * and so decreasing cost.  The search runs in layers, layer h
+     * holding the labels (vertex, cost) first reached with h edges;
+     * a label is kept only if it is cheaper than every path to its
+     * vertex with fewer edges, since any other is dominated.
+     * Negative edges are allowed.
+     */
+    public List<PathResult> hopFrontier( String sourceName, String targetName, int maxHops )
+    {
+        Vertex source = vertexMap.get( sourceName );
+        if( source == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+        Vertex target = vertexMap.get( targetName );
+        if( target == null )
+            throw new NoSuchElementException( "Destination vertex not found" );
+
+        CsrGraph g = csr( );
+        int n = g.vertices.length;
+        SearchState s = clearState( n );
+        if( s.cost2 == null )
+            s.cost2 = new double[ s.capacity( ) ];
+        double[] best = s.dist;          // Cheapest cost so far, any hops
+        double[] candidate = s.cost2;    // Cheapest cost in the layer being built
+        int[] from = s.prev;             // Label the candidate extends
+        int[] touched = s.scratch;
+        IntQueue layer = s.queue;
+        Arrays.fill( candidate, 0, n, INFINITY );
+
+          // Labels: vertex, label extended, cost
+        int[] labelVertex = new int[ 16 ];
+        int[] labelParent = new int[ 16 ];
+        double[] labelCost = new double[ 16 ];
+        labelVertex[ 0 ] = source.id;
+        labelParent[ 0 ] = -1;
+        best[ source.id ] = 0;
+        int labels = 1;
+        long relaxed = 0;
+
+        List<PathResult> frontier = new ArrayList<PathResult>( );
+        if( source == target )
+            frontier.add( new PathResult( 0, new int[ ] { source.id }, 1 ) );
+
+        for( int h = 1, first = 0, last = 1; h <= maxHops && first < last; h++ )
+        {
+            for( int k = first; k < last; k++ )
+            {
+                int v = labelVertex[ k ];
+                for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+                {
+                    int w = g.dest( e );
+                    double d = labelCost[ k ] + g.cost( e );
+                    relaxed++;
+                    if( d < best[ w ] && d < candidate[ w ] )
+                    {
+                        if( touched[ w ] == 0 )
+                        {
+                            touched[ w ] = 1;
+                            layer.add( w );
+                        }
+                        candidate[ w ] = d;
+                        from[ w ] = k;
+                    }
+                }
+            }
+
+            first = last;
+            while( !layer.isEmpty( ) )
+            {
+                int w = layer.remove( );
+                touched[ w ] = 0;
+                if( labels == labelVertex.length )
+                {
+                    labelVertex = Arrays.copyOf( labelVertex, labels * 2 );
+                    labelParent = Arrays.copyOf( labelParent, labels * 2 );
+                    labelCost = Arrays.copyOf( labelCost, labels * 2 );
+                }
+                labelVertex[ labels ] = w;
+                labelParent[ labels ] = from[ w ];
+                labelCost[ labels ] = best[ w ] = candidate[ w ];
+                candidate[ w ] = INFINITY;
+
+                if( w == target.id )
+                {
+                    int[] path = new int[ h + 1 ];
+                    for( int k = labels, i = h; k != -1; k = labelParent[ k ] )
+                        path[ i-- ] = labelVertex[ k ];
+                    frontier.add( new PathResult( best[ w ], path, h + 1 ) );
+                }
+                labels++;
+            }
+            last = labels;
+        }
+
+        s.stats.settled = labels;
+        s.stats.relaxed = relaxed;
+        report( "hopFrontier", source.id, s );
+        return frontier;
+    }
+
+    /**
+     * Look up the ids of the named vertices.
+     */
+    private int[] vertexIds( List<String> names )
+    {
+        int[] ids = new int[ names.size( ) ];
+        for( int i = 0; i < ids.length; i++ )
+        {
+            Vertex v = vertexMap.get( names.get( i ) );
+            if( v == null )
+                throw new NoSuchElementException( "Vertex not found: " + names.get( i ) );
+            ids[ i ] = v.id;
+        }
+        return ids;
+    }
+
+    /**
+     * Return up to k loopless paths from sourceName to targetName in
+     * order of increasing cost, using Yen's algorithm.  Each spur
+     * search is a single-target dijkstra over the shared CSR arrays
+     * with the root path's vertices and the edges already taken from
+     * the spur vertex masked out, so the graph is never copied.
+     * A candidate only spawns spur searches from its deviation vertex
+     * onward, since the searches before it were done for its parent
+     * (Lawler's refinement).
+     */
+    public List<PathResult> kShortestPaths( String sourceName, String targetName, int k )
+    {
+        Vertex s = vertexMap.get( sourceName );
+        if( s == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+        Vertex t = vertexMap.get( targetName );
+        if( t == null )
+            throw new NoSuchElementException( "Destination vertex not found" );
+
+        List<PathResult> result = new ArrayList<PathResult>( );
+        CsrGraph g = csr( );
+        boolean[] blockedVertex = new boolean[ g.vertices.length ];
+        boolean[] blockedEdge = new boolean[ g.edges( ) ];
+        clearState( g.vertices.length );
+
+        YenPath first = maskedDijkstra( g, s.id, t.id, blockedVertex, blockedEdge, null, 0 );
+        if( first == null || k <= 0 )
+        {
+            report( "kShortestPaths", s.id, state );
+            return result;
+        }
+
+        List<YenPath> found = new ArrayList<YenPath>( );
+        PriorityQueue<YenPath> candidates = new PriorityQueue<YenPath>( );
+        Set<String> seen = new HashSet<String>( );
+        seen.add( Arrays.toString( first.path ) );
+
+        for( YenPath last = first; ; last = candidates.remove( ) )
+        {
+            found.add( last );
+            result.add( new PathResult( last.cost( ), last.path, last.path.length ) );
+            if( found.size( ) == k )
+                break;
+
+            for( int i = last.deviation; i < last.path.length - 1; i++ )
+            {
+                int spur = last.path[ i ];
+
+                  // Mask the edges that found paths with this root take next
+                for( YenPath p : found )
+                    if( p.path.length > i + 1 && samePrefix( p.path, last.path, i + 1 ) )
+                        for( int e = g.start( spur ); e < g.start( spur + 1 ); e++ )
+                            if( g.dest( e ) == p.path[ i + 1 ] )
+                                blockedEdge[ e ] = true;
+                for( int j = 0; j < i; j++ )
+                    blockedVertex[ last.path[ j ] ] = true;
+
+                YenPath p = maskedDijkstra( g, spur, t.id, blockedVertex, blockedEdge, last, i );
+                if( p != null && seen.add( Arrays.toString( p.path ) ) )
+                    candidates.add( p );
+
+                for( int e = g.start( spur ); e < g.start( spur + 1 ); e++ )
+                    blockedEdge[ e ] = false;
+                for( int j = 0; j < i; j++ )
+                    blockedVertex[ last.path[ j ] ] = false;
+            }
+
+            if( candidates.isEmpty( ) )
+                break;
+        }
+        originsKnown = false;
+        report( "kShortestPaths", s.id, state );
+        return result;
+    }
+
+    private static boolean samePrefix( int[] a, int[] b, int length )
+    {
+        for( int i = 0; i < length; i++ )
+            if( a[ i ] != b[ i ] )
+                return false;
+        return true;
+    }
+
+    /**
+     * Single-target dijkstra from spur that skips masked vertices and
+     * edges.  The result is root's first rootLength vertices followed
+     * by the path found, or null if target cannot be reached.  The
+     * counters are added to those in state, which kShortestPaths
+     * cleared.
+     */
+    private YenPath maskedDijkstra( CsrGraph g, int spur, int target,
+                                    boolean[] blockedVertex, boolean[] blockedEdge,
+                                    YenPath root, int rootLength )
+    {
+        SearchState s = state;
+        s.clear( g.vertices.length );
+        if( tieEpsilon > 0 )
+            s.clearChoices( g.vertices.length );
+        QueryStats q = s.stats;
+        double[] dist = s.dist;
+        int[] prev = s.prev;
+        int[] hops = s.hops;
+        int[] scratch = s.scratch;
+        TieBreak rule = tieBreak;
+        VertexQueue pq = queue( g, s );
+        seed( s, pq, spur );
+
+        int settled = 0;
+        while( !pq.isEmpty( ) )
+        {
+            int v = pq.deleteMin( );
+            q.pops++;
+            if( scratch[ v ] != 0 )  // already processed v
+            {
+                q.stalePops++;
+                continue;
+            }
+            if( tieEpsilon > 0 )
+                s.order[ settled ] = v;
+            scratch[ v ] = ++settled;
+            q.settled++;
+
+            if( v == target )
+            {
+                if( tieEpsilon > 0 )
+                    choosePaths( g, s, settled, blockedEdge );
+                int[] path = new int[ rootLength + hops[ v ] + 1 ];
+                double[] prefixCost = new double[ path.length ];
+                for( int i = 0; i < rootLength; i++ )
+                {
+                    path[ i ] = root.path[ i ];
+                    prefixCost[ i ] = root.prefixCost[ i ];
+                }
+                double base = rootLength == 0 ? 0 : root.prefixCost[ rootLength ];
+                for( int w = v, i = path.length - 1; i >= rootLength; w = prev[ w ], i-- )
+                {
+                    path[ i ] = w;
+                    prefixCost[ i ] = base + dist[ w ];
+                }
+                return new YenPath( path, prefixCost, rootLength );
+            }
+
+            long tieOver = tieKey( rule, v, hops[ v ], false );
+            long tieOverZero = tieKey( rule, v, hops[ v ], true );
+            q.relaxed += g.start( v + 1 ) - g.start( v );
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+            {
+                int w = g.dest( e );
+                double cvw = g.cost( e );
+                if( blockedEdge[ e ] || blockedVertex[ w ] )
+                    continue;
+                if( cvw < 0 )
+                    throw new GraphException( "Graph has negative edges" );
+
+                double d = dist[ v ] + cvw;
+                if( s.relax( v, w, d, d > dist[ v ] ? tieOver : tieOverZero ) )
+                {
+                    pq.decreaseKey( w );
+                    q.pushes++;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make v a dijkstra source at distance 0.
+     */
+    private void seed( SearchState s, VertexQueue pq, int v )
+    {
+        s.dist[ v ] = 0;
+        s.tie[ v ] = Long.MIN_VALUE;
+        if( tieEpsilon > 0 )
+        {
+            s.cand[ v ] = 0;
+            s.candTie[ v ] = Long.MIN_VALUE;
+        }
+        s.origin[ v ] = v;
+        pq.decreaseKey( v );
+        s.stats.pushes++;
+    }
+
+    /**
+     * Settle the vertices reachable from the seeded sources.  If
+     * targets is positive, stop once that many vertices marked in
+     * s.target have been settled.  Return the number settled; under
+     * a tie epsilon s.order lists them in the order settled.
+     */
+    private int runDijkstra( CsrGraph g, SearchState s, VertexQueue pq, int targets )
+    {
+        int n = g.vertices.length;
+        double[] dist = s.dist;
+        int[] hops = s.hops;
+        int[] scratch = s.scratch;
+        int[] order = tieEpsilon > 0 ? s.order : null;
+        TieBreak rule = tieBreak;
+
+        int nodesSeen = 0;
+        long pushes = 0, pops = 0, stale = 0, relaxed = 0;
+        while( !pq.isEmpty( ) && nodesSeen < n )
+        {
+            int v = pq.deleteMin( );
+            pops++;
+            if( scratch[ v ] != 0 )  // already processed v
+            {
+                stale++;
+                continue;
+            }
+
+            if( order != null )
+                order[ nodesSeen ] = v;
+            scratch[ v ] = ++nodesSeen;
+            if( s.target[ v ] && --targets == 0 )
+                break;
+
+            long tieOver = tieKey( rule, v, hops[ v ], false );
+            long tieOverZero = tieKey( rule, v, hops[ v ], true );
+            int first = g.start( v ), count = g.start( v + 1 ) - first;
+            int[] hub = null;
+            relaxed += count;
+            if( count >= hubDegree )
+            {
+                hub = hubEdges( s, count );
+                count = g.improving( v, dist[ v ], dist, hub );
+            }
+            for( int i = 0; i < count; i++ )
+            {
+                int e = hub == null ? first + i : hub[ i ];
+                int w = g.dest( e );
+                double cvw = g.cost( e );
+                
+                if( cvw < 0 )
+                    throw new GraphException( "Graph has negative edges" );
+                    
+                double d = dist[ v ] + cvw;
+                if( s.relax( v, w, d, d > dist[ v ] ? tieOver : tieOverZero ) )
+                {
+                    pq.decreaseKey( w );
+                    pushes++;
+                }
+            }
+        }
+        QueryStats q = s.stats;
+        q.settled += nodesSeen;
+        q.pushes += pushes;
+        q.pops += pops;
+        q.stalePops += stale;
+        q.relaxed += relaxed;
+        return nodesSeen;
+    }
+
+    /**
+     * Under a tie epsilon, choose the predecessor of each of the first
+     * settled vertices in s.order once their costs are final.  Each
+     * vertex, in the order settled, offers its edges to the vertices
+     * settled after it, so a predecessor's own path is chosen before
+     * it is offered.  s.scratch holds each vertex's place in that
+     * order, 0 if unsettled.  Edges marked in blockedEdge, if not
+     * null, are skipped.  Each settled vertex's dist then becomes the
+     * cost of the path chosen for it, at most epsilon above the least.
+     */
+    private void choosePaths( CsrGraph g, SearchState s, int settled, boolean[] blockedEdge )
+    {
+        double[] cand = s.cand;
+        int[] hops = s.hops;
+        int[] rank = s.scratch;
+        TieBreak rule = tieBreak;
+        double eps = tieEpsilon;
+
+        for( int i = 0; i < settled; i++ )
+        {
+            int v = s.order[ i ];
+            long tieOver = tieKey( rule, v, hops[ v ], false );
+            long tieOverZero = tieKey( rule, v, hops[ v ], true );
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+            {
+                int w = g.dest( e );
+                if( rank[ w ] > i + 1 && ( blockedEdge == null || !blockedEdge[ e ] ) )
+                {
+                    double d = cand[ v ] + g.cost( e );
+                    s.choose( v, w, d, d > cand[ v ] ? tieOver : tieOverZero, eps );
+                }
+            }
+        }
+        for( int i = 0; i < settled; i++ )
+            s.dist[ s.order[ i ] ] = cand[ s.order[ i ] ];
+    }
+
+    /**
+     * Single-source weighted shortest-path algorithm using pairing heaps.
+     */
+    public void dijkstra2( String startName )
+    {
+        PairingHeap<Path> pq = new PairingHeap<Path>( );
+
+        Vertex start = vertexMap.get( startName );
+        if( start == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        double[] dist = s.dist;
+        int[] hops = s.hops;
+        long[] tie = s.tie;
+        int[] scratch = s.scratch;
+        TieBreak rule = tieBreak;
+        double eps = tieEpsilon;
+        PairingHeap.Position<Path>[] pos = positions( g.vertices.length );
+
+        pos[ start.id ] = pq.insert( new Path( start, 0, Long.MIN_VALUE ) ); dist[ start.id ] = 0;
+        tie[ start.id ] = Long.MIN_VALUE;
+        if( eps > 0 )
+        {
+            s.cand[ start.id ] = 0;
+            s.candTie[ start.id ] = Long.MIN_VALUE;
+        }
+
+        int settled = 0;
+        long pushes = 1, relaxed = 0;
+        while ( !pq.isEmpty( ) )
+        {
+            Path vrec = pq.deleteMin( );
+            int v = vrec.dest.id;
+            if( eps > 0 )
+                s.order[ settled ] = v;
+            scratch[ v ] = ++settled;
+
+            long tieOver = tieKey( rule, v, hops[ v ], false );
+            long tieOverZero = tieKey( rule, v, hops[ v ], true );
+            relaxed += g.start( v + 1 ) - g.start( v );
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+            {
+                int w = g.dest( e );
+                double cvw = g.cost( e );
+                
+                if( cvw < 0 )
+                    throw new GraphException( "Graph has negative edges" );
+                    
+                double d = dist[ v ] + cvw;
+                if( s.relax( v, w, d, d > dist[ v ] ? tieOver : tieOverZero ) )
+                {
+                    Path newVal = new Path( g.vertices[ w ], dist[ w ], tie[ w ] );
+                    if( pos[ w ] == null )
+                        pos[ w ] = pq.insert( newVal );
+                    else
+                        pq.decreaseKey( pos[ w ], newVal ); 
+                    pushes++;
+                }
+            }
+        }
+        if( eps > 0 )
+            choosePaths( g, s, settled, null );
+        s.stats.settled = s.stats.pops = settled;
+        s.stats.pushes = pushes;
+        s.stats.relaxed = relaxed;
+        report( "dijkstra2", start.id, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Return an array of n heap positions; Java cannot create an
+     * array of a generic type directly.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static PairingHeap.Position<Path>[] positions( int n )
+    {
+        return (PairingHeap.Position<Path>[]) new PairingHeap.Position<?>[ n ];
+    }
+
+    /**
+     * Choose the label-correcting strategy negative runs.
+     */
+    public void setNegativeStrategy( NegativeStrategy strategy )
+    {
+        negativeStrategy = strategy;
+    }
+
+    public NegativeStrategy negativeStrategy( )
+      { return negativeStrategy; }
+
+    /**
+     * Single-source negative-weighted shortest-path algorithm, using
+     * the strategy chosen by setNegativeStrategy.
+     * A reachable negative cycle is reported by throwing a
+     * NegativeCycleException holding the cycle, found by checking
+     * the prev links for a cycle after every n improvements.
+     */
+    public void negative( String startName )
+    {
+        Vertex start = vertexMap.get( startName );
+        if( start == null )
+            throw new NoSuchElementException( "Start vertex not found" );
+
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        if( negativeStrategy == NegativeStrategy.GOLDBERG_RADZIK )
+            goldbergRadzik( g, s, start.id );
+        else
+            labelCorrecting( g, s, start.id );
+        report( "negative", start.id, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Queue-based label correcting from source, with the SLF and LLL
+     * rules applied to the deque as negativeStrategy asks.  Only in
+     * FIFO order is a vertex dequeued more than n times proof of a
+     * negative cycle; SLF and LLL may reorder a vertex that often
+     * without one, so they report a cycle only once the prev links
+     * close one.
+     */
+    private void labelCorrecting( CsrGraph g, SearchState s, int source )
+    {
+        int n = g.vertices.length;
+        double[] dist = s.dist;
+        int[] prev = s.prev;
+        int[] scratch = s.scratch;
+        IntQueue q = s.queue;
+        boolean slf = negativeStrategy == NegativeStrategy.SLF
+                   || negativeStrategy == NegativeStrategy.SLF_LLL;
+        boolean lll = negativeStrategy == NegativeStrategy.LLL
+                   || negativeStrategy == NegativeStrategy.SLF_LLL;
+        boolean fifo = !slf && !lll;
+
+        q.add( source ); dist[ source ] = 0; scratch[ source ]++;
+        long pushes = 1, pops = 0, relaxed = 0, checks = 0;
+        int improved = 0;
+        double queued = 0;   // Sum of the labels on the queue, for LLL
+
+        while( !q.isEmpty( ) )
+        {
+            if( lll )
+                for( int k = q.size( ); k > 1 && dist[ q.peek( ) ] * q.size( ) > queued; k-- )
+                    q.add( q.remove( ) );
+
+            int v = q.remove( );
+            queued = q.isEmpty( ) ? 0 : queued - dist[ v ];
+            pops++;
+            boolean exhausted = scratch[ v ]++ > 2 * n && fifo;
+            if( exhausted || improved >= n )
+            {
+                checks++;
+                improved = 0;
+                checkNegativeCycle( prev, s, n, exhausted );
+            }
+
+            int first = g.start( v ), count = g.start( v + 1 ) - first;
+            int[] hub = null;
+            relaxed += count;
+            if( count >= hubDegree )
+            {
+                hub = hubEdges( s, count );
+                count = g.improving( v, dist[ v ], dist, hub );
+            }
+            for( int i = 0; i < count; i++ )
+            {
+                int e = hub == null ? first + i : hub[ i ];
+                int w = g.dest( e );
+                double d = dist[ v ] + g.cost( e );
+                
+                if( dist[ w ] > d )
+                {
+                    if( scratch[ w ] % 2 == 1 )   // On the queue already
+                        queued -= dist[ w ] - d;
+                    dist[ w ] = d;
+                    prev[ w ] = v;
+                    improved++;
+                      // Enqueue only if not already on the queue
+                    if( scratch[ w ]++ % 2 == 0 )
+                    {
+                        if( slf && !q.isEmpty( ) && d < dist[ q.peek( ) ] )
+                            q.addFirst( w );
+                        else
+                            q.add( w );
+                        queued += d;
+                        pushes++;
+                    }
+                    else
+                        scratch[ w ]--;  // undo the enqueue increment    
+                }
+            }
+        }
+        s.stats.pushes = pushes;
+        s.stats.pops = pops;
+        s.stats.cycleChecks = checks;
+        s.stats.relaxed = relaxed;
+    }
+
+    /**
+     * Goldberg-Radzik label correcting from source.  Each pass takes
+     * the vertices whose labels changed in the last pass, orders
+     * everything reachable from them over improving edges
+     * topologically by depth-first search, and scans in that order.
+     * Without negative cycles at most n passes are needed.
+     */
+    private void goldbergRadzik( CsrGraph g, SearchState s, int source )
+    {
+        int n = g.vertices.length;
+        double[] dist = s.dist;
+        int[] prev = s.prev;
+        int[] inNext = s.scratch;   // 1 while in the next pass's set
+        IntQueue next = s.queue;
+        if( s.mark == null )
+        {
+            s.mark = new int[ s.capacity( ) ];
+            s.cursor = new int[ s.capacity( ) ];
+            s.stack = new int[ s.capacity( ) ];
+            s.order = new int[ s.capacity( ) ];
+        }
+        int[] mark = s.mark;
+        int[] cursor = s.cursor;
+        int[] stack = s.stack;
+        int[] order = s.order;
+        Arrays.fill( mark, 0, n, 0 );
+
+        next.add( source ); dist[ source ] = 0; inNext[ source ] = 1;
+        long pushes = 1, pops = 0, relaxed = 0, checks = 0;
+        int improved = 0;
+
+        for( int pass = 1; !next.isEmpty( ); pass++ )
+        {
+            if( pass > n + 1 )
+            {
+                checks++;
+                checkNegativeCycle( prev, s, n, true );
+            }
+
+              // Depth-first postorder of the vertices reachable from
+              // the set over edges that would lower a label
+            int count = 0;
+            while( !next.isEmpty( ) )
+            {
+                int root = next.remove( );
+                inNext[ root ] = 0;
+                if( mark[ root ] == pass )
+                    continue;
+
+                int sp = 0;
+                stack[ sp++ ] = root;
+                mark[ root ] = pass;
+                cursor[ root ] = g.start( root );
+                while( sp > 0 )
+                {
+                    int u = stack[ sp - 1 ];
+                    if( cursor[ u ] < g.start( u + 1 ) )
+                    {
+                        int e = cursor[ u ]++;
+                        int w = g.dest( e );
+                        if( mark[ w ] != pass && dist[ u ] + g.cost( e ) < dist[ w ] )
+                        {
+                            mark[ w ] = pass;
+                            cursor[ w ] = g.start( w );
+                            stack[ sp++ ] = w;
+                        }
+                    }
+                    else
+                    {
+                        sp--;
+                        cursor[ u ] = count;   // Now u's position in order
+                        order[ count++ ] = u;
+                    }
+                }
+            }
+
+              // Scan in reverse postorder, a topological order
+            for( int i = count - 1; i >= 0; i-- )
+            {
+                int v = order[ i ];
+                pops++;
+                if( improved >= n )
+                {
+                    checks++;
+                    improved = 0;
+                    checkNegativeCycle( prev, s, n, false );
+                }
+
+                for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+                {
+                    int w = g.dest( e );
+                    double d = dist[ v ] + g.cost( e );
+                    relaxed++;
+
+                    if( dist[ w ] > d )
+                    {
+                        dist[ w ] = d;
+                        prev[ w ] = v;
+                        improved++;
+                          // Vertices still to be scanned this pass wait
+                        if( !( mark[ w ] == pass && cursor[ w ] < i ) && inNext[ w ] == 0 )
+                        {
+                            inNext[ w ] = 1;
+                            next.add( w );
+                            pushes++;
+                        }
+                    }
+                }
+            }
         }
+        s.stats.pushes = pushes;
+        s.stats.pops = pops;
+        s.stats.cycleChecks = checks;
+        s.stats.relaxed = relaxed;
     }
 
     /**
-     * If vertexName is not present, add it to vertexMap.
-     * In either case, return the Vertex.
+     * Look for a cycle among the prev links, which has negative
+     * cost if present, and throw a NegativeCycleException naming it.
+     * If there is none but the search is exhausted, throw anyway.
      */
-    private Vertex getVertex( String vertexName )
+    private void checkNegativeCycle( int[] prev, SearchState s, int n, boolean exhausted )
     {
-        Vertex v = vertexMap.get( vertexName );
-        if( v == null )
+        int[] cycle = prevCycle( prev, s.origin, n );   // origin is free here
+        if( cycle != null )
         {
-            v = new Vertex( vertexName );
-            vertexMap.put( vertexName, v );
+            List<String> names = new ArrayList<String>( cycle.length );
+            for( int x : cycle )
+                names.add( vertices.get( x ).name );
+            throw new NegativeCycleException( names );
         }
-        return v;
+        if( exhausted )
+            throw new GraphException( "Negative cycle detected" );
     }
 
     /**
-     * Recursive routine to print shortest path to dest
-     * after running shortest path algorithm to a file. The path
-     * is known to exist.
-     * 
-     * This method has been edited from the original version
-     * for the purpose of the assignment
+     * Return the vertex ids of a cycle among the prev links of the
+     * first n vertices, in edge order with the first repeated at the
+     * end, or null if there is none.  Each walk follows prev links
+     * and marks vertices with its starting vertex in mark, stopping
+     * at a vertex an earlier walk marked, so the whole check is O(n).
      */
-    private void printPath( Vertex dest , PrintWriter outfile)
+    private static int[] prevCycle( int[] prev, int[] mark, int n )
     {
-        if( dest.prev != null )
+        Arrays.fill( mark, 0, n, -1 );
+        for( int v = 0; v < n; v++ )
         {
-            printPath( dest.prev, outfile );
-            outfile.print( " to " );
+            int x = v;
+            while( x != -1 && mark[ x ] == -1 )
+            {
+                mark[ x ] = v;
+                x = prev[ x ];
+            }
+            if( x == -1 || mark[ x ] != v )
+                continue;
+
+            int length = 1;
+            for( int y = prev[ x ]; y != x; y = prev[ y ] )
+                length++;
+            int[] cycle = new int[ length + 1 ];
+            cycle[ length ] = x;
+            for( int y = x, i = length; i > 0; )
+                cycle[ --i ] = y = prev[ y ];
+            return cycle;
         }
-        outfile.print( dest.name );
-    }
-    
-    /**
-     * Initializes the vertex output info prior to running
-     * any shortest path algorithm.
-     */
-    private void clearAll( )
-    {
-        for( Vertex v : vertexMap.values( ) )
-            v.reset( );
+        return null;
     }
 
     /**
-     * Single-source unweighted shortest-path algorithm.
+     * Single-source negative-weighted acyclic-graph shortest-path algorithm.
+     * The topological order is computed once and reused until the
+     * graph changes; each query is one sweep from start's position.
      */
-    public void unweighted( String startName )
+    public void acyclic( String startName )
     {
-        clearAll( ); 
-
         Vertex start = vertexMap.get( startName );
         if( start == null )
             throw new NoSuchElementException( "Start vertex not found" );
 
-        Queue<Vertex> q = new LinkedList<Vertex>( );
-        q.add( start ); start.dist = 0;
+        int[] order = topologicalOrder( );
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        double[] dist = s.dist;
+        int[] prev = s.prev;
 
-        while( !q.isEmpty( ) )
+        dist[ start.id ] = 0;
+
+          // Vertices before start in the order cannot be reached
+        long settled = 0, relaxed = 0;
+        for( int k = topoPosition[ start.id ]; k < order.length; k++ )
         {
-            Vertex v = q.remove( );
+            int v = order[ k ];
+            if( dist[ v ] == INFINITY )
+                continue;
 
-            for( Edge e : v.adj )
+            settled++;
+            int first = g.start( v ), count = g.start( v + 1 ) - first;
+            int[] hub = null;
+            relaxed += count;
+            if( count >= hubDegree )
+            {
+                hub = hubEdges( s, count );
+                count = g.improving( v, dist[ v ], dist, hub );
+            }
+            for( int i = 0; i < count; i++ )
             {
-                Vertex w = e.dest;
-                if( w.dist == INFINITY )
+                int e = hub == null ? first + i : hub[ i ];
+                int w = g.dest( e );
+                double cvw = g.cost( e );
+                
+                if( dist[ w ] > dist[ v ] + cvw )
                 {
-                    w.dist = v.dist + 1;
-                    w.prev = v;
-                    q.add( w );
+                    dist[ w ] = dist[ v ] + cvw;
+                    prev[ w ] = v;
                 }
             }
         }
+        s.stats.settled = settled;
+        s.stats.relaxed = relaxed;
+        report( "acyclic", start.id, s );
+        publish( s.dist, s.prev, s.hops );
     }
 
     /**
-     * Single-source weighted shortest-path algorithm.
+     * Run task over from .. to-1, split into ranges of at least
+     * PARALLEL_GRAIN indices run on the common fork-join pool.
      */
-    public void dijkstra( String startName )
+    private static void parallelFor( int from, int to, final RangeTask task )
     {
-        PriorityQueue<Path> pq = new PriorityQueue<Path>( );
-
-        Vertex start = vertexMap.get( startName );
-        if( start == null )
-            throw new NoSuchElementException( "Start vertex not found" );
+        long items = to - from;
+        int tasks = (int) Math.min( ForkJoinPool.getCommonPoolParallelism( ),
+                                    items / PARALLEL_GRAIN );
+        if( tasks <= 1 )
+        {
+            task.run( from, to );
+            return;
+        }
 
-        clearAll( );
-        pq.add( new Path( start, 0 ) ); start.dist = 0;
-        
-        int nodesSeen = 0;
-        while( !pq.isEmpty( ) && nodesSeen < vertexMap.size( ) )
+        List<Callable<Void>> parts = new ArrayList<Callable<Void>>( tasks );
+        for( int i = 0; i < tasks; i++ )
         {
-            Path vrec = pq.remove( );
-            Vertex v = vrec.dest;
-            if( v.scratch != 0 )  // already processed v
-                continue;
-                
-            v.scratch = 1;
-            nodesSeen++;
+            final int lo = from + (int) ( items * i / tasks );
+            final int hi = from + (int) ( items * ( i + 1 ) / tasks );
+            parts.add( new Callable<Void>( )
+              {
+                public Void call( )
+                  { task.run( lo, hi ); return null; }
+              } );
+        }
 
-            for( Edge e : v.adj )
-            {
-                Vertex w = e.dest;
-                double cvw = e.cost;
-                
-                if( cvw < 0 )
-                    throw new GraphException( "Graph has negative edges" );
-                    
-                if( w.dist > v.dist + cvw || (w.dist == (v.dist + cvw) && (v.edgeCount + 1) < w.edgeCount))
-                {
-                	w.edgeCount = v.edgeCount + 1;
-                	
-                    w.dist = v.dist +cvw;
-                    w.prev = v;
-                    pq.add( new Path( w, w.dist ) );
-                }
-            }
+        try
+        {
+            for( Future<Void> f : ForkJoinPool.commonPool( ).invokeAll( parts ) )
+                f.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new GraphException( "Interrupted" );
+        }
+        catch( ExecutionException e )
+        {
+            if( e.getCause( ) instanceof RuntimeException )
+                throw (RuntimeException) e.getCause( );
+            throw new GraphException( e.getCause( ).toString( ) );
         }
     }
 
     /**
-     * Single-source weighted shortest-path algorithm using pairing heaps.
+     * Compute (once per edge set) the topological levels of the
+     * vertices: level 0 has no incoming edges, and each later level
+     * holds the vertices whose last incoming edge comes from the
+     * level before.  Indegrees are counted, and each level expanded,
+     * in parallel with atomic counters.
      */
-    public void dijkstra2( String startName )
+    private void topologicalLevels( )
     {
-        PairingHeap<Path> pq = new PairingHeap<Path>( );
+        if( levelOrder != null )
+            return;
 
-        Vertex start = vertexMap.get( startName );
-        if( start == null )
-            throw new NoSuchElementException( "Start vertex not found" );
+        final CsrGraph g = csr( );
+        final int n = g.vertices.length;
+        final AtomicIntegerArray indegree = new AtomicIntegerArray( n );
+        parallelFor( 0, n, new RangeTask( )
+          {
+            public void run( int from, int to )
+            {
+                for( int e = g.start( from ); e < g.start( to ); e++ )
+                    indegree.incrementAndGet( g.dest( e ) );
+            }
+          } );
 
-        clearAll( );
-        start.pos = pq.insert( new Path( start, 0 ) ); start.dist = 0;
+        final int[] order = new int[ n ];
+        final AtomicInteger tail = new AtomicInteger( );
+        for( int v = 0; v < n; v++ )
+            if( indegree.get( v ) == 0 )
+                order[ tail.getAndIncrement( ) ] = v;
 
-        while ( !pq.isEmpty( ) )
+        IntQueue starts = new IntQueue( 16 );
+        int head = 0;
+        while( head < tail.get( ) )
         {
-            Path vrec = pq.deleteMin( );
-            Vertex v = vrec.dest;
-                
-            for( Edge e : v.adj )
-            {
-                Vertex w = e.dest;
-                double cvw = e.cost;
-                
-                if( cvw < 0 )
-                    throw new GraphException( "Graph has negative edges" );
-                    
-                if( w.dist > v.dist + cvw )
+            starts.add( head );
+            int end = tail.get( );
+            parallelFor( head, end, new RangeTask( )
+              {
+                public void run( int from, int to )
                 {
-                    w.dist = v.dist + cvw;
-                    w.prev = v;
-                    
-                    Path newVal = new Path( w, w.dist );                    
-                    if( w.pos == null )
-                        w.pos = pq.insert( newVal );
-                    else
-                        pq.decreaseKey( w.pos, newVal ); 
+                    for( int k = from; k < to; k++ )
+                    {
+                        int v = order[ k ];
+                        for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
+                            if( indegree.decrementAndGet( g.dest( e ) ) == 0 )
+                                order[ tail.getAndIncrement( ) ] = g.dest( e );
+                    }
                 }
-            }
+              } );
+            head = end;
         }
+
+        if( head != n )
+            throw new GraphException( "Graph has a cycle!" );
+
+        int levels = starts.size( );
+        int[] start = new int[ levels + 1 ];
+        int[] level = new int[ n ];
+        for( int l = 0; l < levels; l++ )
+            start[ l ] = starts.remove( );
+        start[ levels ] = n;
+        for( int l = 0; l < levels; l++ )
+            for( int k = start[ l ]; k < start[ l + 1 ]; k++ )
+                level[ order[ k ] ] = l;
+
+        levelOrder = order;
+        levelStart = start;
+        levelOf = level;
     }
 
     /**
-     * Single-source negative-weighted shortest-path algorithm.
+     * Parallel version of acyclic for large DAGs.  The levels after
+     * start's are settled one at a time, the vertices of each level
+     * in parallel: each vertex takes the best of its incoming edges,
+     * whose sources all lie in earlier levels and are already final.
+     * Every vertex is written by one thread only, so no locking is
+     * needed.  Costs match acyclic; among equal-cost paths the
+     * previous vertex may differ.
      */
-    public void negative( String startName )
+    public void parallelAcyclic( String startName )
     {
-        clearAll( ); 
-
         Vertex start = vertexMap.get( startName );
         if( start == null )
             throw new NoSuchElementException( "Start vertex not found" );
 
-        Queue<Vertex> q = new LinkedList<Vertex>( );
-        q.add( start ); start.dist = 0; start.scratch++;
+        topologicalLevels( );
+        final CsrGraph r = csr( ).reverse( );
+        SearchState s = clearState( r.vertices.length );
+        final double[] dist = s.dist;
+        final int[] prev = s.prev;
+        final int[] order = levelOrder;
+        final AtomicLong settled = new AtomicLong( 1 );
+        final AtomicLong relaxed = new AtomicLong( );
 
-        while( !q.isEmpty( ) )
+        dist[ start.id ] = 0;
+
+          // Levels up to start's cannot be reached
+        for( int l = levelOf[ start.id ] + 1; l + 1 < levelStart.length; l++ )
+            parallelFor( levelStart[ l ], levelStart[ l + 1 ], new RangeTask( )
+              {
+                public void run( int from, int to )
+                {
+                    long reached = 0, edges = 0;
+                    for( int k = from; k < to; k++ )
+                    {
+                        int w = order[ k ];
+                        double best = INFINITY;
+                        int via = -1;
+                        for( int e = r.start( w ); e < r.start( w + 1 ); e++ )
+                        {
+                            int v = r.dest( e );
+                            if( dist[ v ] == INFINITY )
+                                continue;
+                            edges++;
+                            double d = dist[ v ] + r.cost( e );
+                            if( d < best )
+                            {
+                                best = d;
+                                via = v;
+                            }
+                        }
+                        if( via != -1 )
+                        {
+                            dist[ w ] = best;
+                            prev[ w ] = via;
+                            reached++;
+                        }
+                    }
+                    settled.addAndGet( reached );
+                    relaxed.addAndGet( edges );
+                }
+              } );
+
+        s.stats.settled = settled.get( );
+        s.stats.relaxed = relaxed.get( );
+        report( "parallelAcyclic", start.id, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Return true if the vertices are named 0 .. N-1 and every edge
+     * goes from a lower to a higher vertex number, as in the exponent
+     * graph.  Numeric order is then a topological order.
+     */
+    public boolean isMonotoneDag( )
+    {
+        if( !monotoneChecked )
         {
-            Vertex v = q.remove( );
-            if( v.scratch++ > 2 * vertexMap.size( ) )
-                throw new GraphException( "Negative cycle detected" );
+            monotoneChecked = true;
+            monotoneOrder = null;
+            monotoneRank = null;
 
-            for( Edge e : v.adj )
+            int n = vertices.size( );
+            int[] order = new int[ n ];
+            int[] rank = new int[ n ];
+            Arrays.fill( order, -1 );
+            for( Vertex v : vertices )
             {
-                Vertex w = e.dest;
-                double cvw = e.cost;
-                
-                if( w.dist > v.dist + cvw )
+                int k;
+                try
+                  { k = Integer.parseInt( v.name ); }
+                catch( NumberFormatException e )
+                  { return false; }
+                if( k < 0 || k >= n || order[ k ] != -1 )
+                    return false;
+                order[ k ] = v.id;
+                rank[ v.id ] = k;
+            }
+
+            CsrGraph g = csr( );
+            boolean nonNegative = true;
+            for( int v = 0; v < n; v++ )
+                for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
                 {
-                    w.dist = v.dist + cvw;
-                    w.prev = v;
-                      // Enqueue only if not already on the queue
-                    if( w.scratch++ % 2 == 0 )
-                        q.add( w );
-                    else
-                        w.scratch--;  // undo the enqueue increment    
+                    if( rank[ g.dest( e ) ] <= rank[ v ] )
+                        return false;
+                    nonNegative &= g.cost( e ) >= 0;
                 }
-            }
+
+            monotoneNonNegative = nonNegative;
+            monotoneOrder = order;
+            monotoneRank = rank;
         }
+        return monotoneOrder != null;
     }
 
     /**
-     * Single-source negative-weighted acyclic-graph shortest-path algorithm.
+     * Single-source shortest-path algorithm for monotone DAGs.
+     * Vertices are settled in numeric order in one linear sweep,
+     * with no priority queue; ties are broken toward fewer edges
+     * exactly as in dijkstra.  Negative edges are allowed.
      */
-    public void acyclic( String startName )
+    public void monotoneDag( String startName )
     {
         Vertex start = vertexMap.get( startName );
         if( start == null )
             throw new NoSuchElementException( "Start vertex not found" );
+        if( !isMonotoneDag( ) )
+            throw new GraphException( "Graph is not a monotone DAG" );
 
-        clearAll( ); 
-        Queue<Vertex> q = new LinkedList<Vertex>( );
-        start.dist = 0;
-        
-          // Compute the indegrees
-		Collection<Vertex> vertexSet = vertexMap.values( );
-        for( Vertex v : vertexSet )
-            for( Edge e : v.adj )
-                e.dest.scratch++;
-            
-          // Enqueue vertices of indegree zero
-        for( Vertex v : vertexSet )
-            if( v.scratch == 0 )
-                q.add( v );
-       
-        int iterations;
-        for( iterations = 0; !q.isEmpty( ); iterations++ )
+        CsrGraph g = csr( );
+        SearchState s = clearState( g.vertices.length );
+        double[] dist = s.dist;
+        int[] hops = s.hops;
+        TieBreak rule = tieBreak;
+        double eps = tieEpsilon;
+
+        dist[ start.id ] = 0;
+        s.tie[ start.id ] = Long.MIN_VALUE;
+        if( eps > 0 )
+        {
+            s.cand[ start.id ] = 0;
+            s.candTie[ start.id ] = Long.MIN_VALUE;
+        }
+
+          // Vertices numbered below start cannot be reached
+        long settled = 0, relaxed = 0;
+        for( int k = monotoneRank[ start.id ]; k < monotoneOrder.length; k++ )
         {
-            Vertex v = q.remove( );
+            int v = monotoneOrder[ k ];
+            if( dist[ v ] == INFINITY )
+                continue;
 
-            for( Edge e : v.adj )
+            settled++;
+            relaxed += g.start( v + 1 ) - g.start( v );
+            long tieOver = tieKey( rule, v, hops[ v ], false );
+            long tieOverZero = tieKey( rule, v, hops[ v ], true );
+            for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
             {
-                Vertex w = e.dest;
-                double cvw = e.cost;
-                
-                if( --w.scratch == 0 )
-                    q.add( w );
-                
-                if( v.dist == INFINITY )
-                    continue;    
-                
-                if( w.dist > v.dist + cvw )
+                int w = g.dest( e );
+                double d = dist[ v ] + g.cost( e );
+                s.relax( v, w, d, d > dist[ v ] ? tieOver : tieOverZero );
+            }
+        }
+
+          // With a tie epsilon the costs are now final; each edge
+          // dijkstra would see, from a vertex it settles earlier, is
+          // offered as a predecessor, as in choosePaths
+        if( eps > 0 )
+            for( int k = monotoneRank[ start.id ]; k < monotoneOrder.length; k++ )
+            {
+                int v = monotoneOrder[ k ];
+                if( dist[ v ] == INFINITY )
+                    continue;
+
+                long tieOver = tieKey( rule, v, hops[ v ], false );
+                long tieOverZero = tieKey( rule, v, hops[ v ], true );
+                for( int e = g.start( v ); e < g.start( v + 1 ); e++ )
                 {
-                    w.dist = v.dist + cvw;
-                    w.prev = v;
+                    int w = g.dest( e );
+                    double cvw = g.cost( e ), d = s.cand[ v ] + cvw;
+                    if( cvw < 0 || s.before( v, w ) )
+                        s.choose( v, w, d, d > s.cand[ v ] ? tieOver : tieOverZero, eps );
                 }
             }
-        }
-        
-        if( iterations != vertexMap.size( ) )
-            throw new GraphException( "Graph has a cycle!" );
+        if( eps > 0 )   // report the cost of the paths chosen
+            for( int v = 0; v < g.vertices.length; v++ )
+                if( dist[ v ] != INFINITY )
+                    dist[ v ] = s.cand[ v ];
+        s.stats.settled = settled;
+        s.stats.relaxed = relaxed;
+        report( "monotoneDag", start.id, s );
+        publish( s.dist, s.prev, s.hops );
+    }
+
+    /**
+     * Run monotoneDag and dijkstra from the same start and throw a
+     * GraphException if any vertex differs in cost, previous vertex
+     * or edge count.  The dijkstra results are left in place.
+     */
+    public void verifyMonotoneDag( String startName )
+    {
+        monotoneDag( startName );
+        double[] dist = Arrays.copyOf( pathDist, pathCount );
+        int[] prev = Arrays.copyOf( pathPrev, pathCount );
+        int[] hops = Arrays.copyOf( pathHops, pathCount );
+
+        dijkstra( startName );
+        for( int v = 0; v < pathCount; v++ )
+            if( pathDist[ v ] != dist[ v ] || pathPrev[ v ] != prev[ v ]
+                    || pathHops[ v ] != hops[ v ] )
+                throw new GraphException( "monotoneDag and dijkstra disagree at "
+                                          + vertices.get( v ).name );
     }
 
     /**
@@ -398,22 +4859,207 @@ public class Graph
         {
  
             String startName = "0";
-            for (int i = 1; i <= 1000; i++){
+            List<Future<PathResult>> answers = new ArrayList<Future<PathResult>>( EXPONENT_LIMIT );
+            for (int i = 1; i <= EXPONENT_LIMIT; i++)
+                answers.add( g.batcher( ).submit( startName, Integer.toString(i) ) );
+            for (int i = 1; i <= EXPONENT_LIMIT; i++){
                 String destName = Integer.toString(i);
-                g.dijkstra(startName);//only need this
-                g.printPath(destName, outfile);
+                g.printPath( answers.get( i - 1 ).get( ), destName, outfile );
             }
         }
-        catch( NoSuchElementException e )
-          { return false; }
-        catch( GraphException e )
-          { System.err.println( e ); }
+        catch( ExecutionException e )
+        {
+            if( e.getCause( ) instanceof NoSuchElementException )
+                return false;
+            System.err.println( e.getCause( ) );
+        }
+        catch( InterruptedException e )
+          { Thread.currentThread( ).interrupt( ); }
         return true;
     }
 
     /**
-     * TODO: complete a method that constructs a file. This
-     * file contains data about vertices and edge costs. 
+     * Feed the edges of the exponent graph to sink: an edge from
+     * every exponent to the next greater exponent, and an edge from
+     * every exponent from 2 onwards to its doubled value while that
+     * stays within the limit.
+     */
+    private static void generateExponentEdges( int limit, EdgeSink sink )
+    {
+        for( int i = 0; i < limit; i++ )
+        {
+            sink.edge( Integer.toString( i ), Integer.toString( i + 1 ), i );
+
+            if( i >= 2 && 2 * i <= limit )
+            {
+                double cost = i * (1 + (Math.log(i) / Math.log(2))); //credit : Professor Shervin
+                sink.edge( Integer.toString( i ), Integer.toString( i + i ), cost );
+            }
+        }
+    }
+
+    /**
+     * Feed sink a random graph on vertices 0 .. n-1 with m edges, many
+     * of them negative but with no negative cycle: each edge gets a
+     * random cost in 0 .. 100 plus p(source) - p(dest) for random
+     * vertex potentials p, so every cycle keeps its nonnegative cost.
+     * A path 0 .. n-1 makes every vertex reachable from 0.
+     */
+    private static void generateNegativeEdges( int n, int m, long seed, EdgeSink sink )
+    {
+        Random r = new Random( seed );
+        int[] p = new int[ n ];
+        for( int v = 0; v < n; v++ )
+            p[ v ] = r.nextInt( 1000 );
+        for( int i = 0; i < m; i++ )
+        {
+            int v = i < n - 1 ? i : r.nextInt( n );
+            int w = i < n - 1 ? i + 1 : r.nextInt( n );
+            sink.edge( Integer.toString( v ), Integer.toString( w ),
+                       r.nextInt( 101 ) + p[ v ] - p[ w ] );
+        }
+    }
+
+    /**
+     * Time negative from startName with every strategy, rounds runs
+     * each after one warm-up run, and print the mean time and work
+     * per run to out.
+     */
+    public static void benchmarkNegative( Graph g, String startName, int rounds, PrintStream out )
+    {
+        NegativeStrategy saved = g.negativeStrategy;
+        try
+        {
+            for( NegativeStrategy strategy : NegativeStrategy.values( ) )
+            {
+                g.setNegativeStrategy( strategy );
+                g.setMetrics( GraphMetrics.NONE );
+                g.negative( startName );
+                CountingMetrics m = new CountingMetrics( );
+                g.setMetrics( m );
+                for( int i = 0; i < rounds; i++ )
+                    g.negative( startName );
+                QueryStats t = m.totals( "negative" );
+                out.printf( "%-16s %10.3f ms %12d relaxed %10d scans%n", strategy,
+                            t.nanos / 1e6 / rounds, t.relaxed / rounds, t.pops / rounds );
+            }
+        }
+        finally
+        {
+            g.setNegativeStrategy( saved );
+            g.setMetrics( GraphMetrics.NONE );
+        }
+    }
+
+    /**
+     * Generate a side by side grid with edges both ways between
+     * neighbors and random costs 1 to 100.  The vertices are named and
+     * the edges emitted in random order, so insertion order has no
+     * locality for reorder to recover.
+     */
+    private static void generateGridEdges( int side, long seed, EdgeSink sink )
+    {
+        Random r = new Random( seed );
+        int n = side * side;
+        int[] name = new int[ n ];
+        for( int v = 0; v < n; v++ )
+            name[ v ] = v;
+        long[] edges = new long[ 4 * n ];
+        int m = 0;
+        for( int v = 0; v < n; v++ )
+        {
+            int j = r.nextInt( v + 1 );
+            int t = name[ v ];
+            name[ v ] = name[ j ];
+            name[ j ] = t;
+            if( v % side + 1 < side )
+            {
+                edges[ m++ ] = (long) v << 32 | ( v + 1 );
+                edges[ m++ ] = (long) ( v + 1 ) << 32 | v;
+            }
+            if( v + side < n )
+            {
+                edges[ m++ ] = (long) v << 32 | ( v + side );
+                edges[ m++ ] = (long) ( v + side ) << 32 | v;
+            }
+        }
+        for( int i = m - 1; i > 0; i-- )
+        {
+            int j = r.nextInt( i + 1 );
+            long t = edges[ i ];
+            edges[ i ] = edges[ j ];
+            edges[ j ] = t;
+        }
+        for( int i = 0; i < m; i++ )
+            sink.edge( Integer.toString( name[ (int) ( edges[ i ] >>> 32 ) ] ),
+                       Integer.toString( name[ (int) edges[ i ] ] ), 1 + r.nextInt( 100 ) );
+    }
+
+    /**
+     * Renumber g in every order, each starting from insertion order,
+     * and time dijkstra from the given sources, rounds passes each
+     * after one warm-up pass, printing the mean time per query and
+     * the mean and largest id gap across an edge, a measure of how
+     * far apart in memory an edge's ends lie.  The graph is left in
+     * insertion order.
+     */
+    public static void benchmarkOrder( Graph g, List<String> sources, int rounds, PrintStream out )
+    {
+        try
+        {
+            for( VertexOrder order : VertexOrder.values( ) )
+            {
+                g.reorder( VertexOrder.INSERTION );
+                g.compact( g.floatCosts, g.offHeap, order );
+                CsrGraph c = g.csr( );
+                long gap = 0;
+                int bandwidth = 0;
+                for( int v = 0; v < c.vertices.length; v++ )
+                    for( int e = c.start( v ); e < c.start( v + 1 ); e++ )
+                    {
+                        int d = Math.abs( c.dest( e ) - v );
+                        gap += d;
+                        bandwidth = Math.max( bandwidth, d );
+                    }
+
+                g.setMetrics( GraphMetrics.NONE );
+                for( String s : sources )
+                    g.dijkstra( s );
+                CountingMetrics m = new CountingMetrics( );
+                g.setMetrics( m );
+                for( int i = 0; i < rounds; i++ )
+                    for( String s : sources )
+                        g.dijkstra( s );
+                QueryStats t = m.totals( "dijkstra" );
+                out.printf( "%-10s %10.3f ms %12.1f mean gap %10d bandwidth%n", order,
+                            t.nanos / 1e6 / m.queries( "dijkstra" ),
+                            (double) gap / Math.max( c.edges( ), 1 ), bandwidth );
+            }
+        }
+        finally
+        {
+            g.reorder( VertexOrder.INSERTION );
+            g.setMetrics( GraphMetrics.NONE );
+        }
+    }
+
+    /**
+     * Build the exponent graph directly in this graph, without going
+     * through a graph file.
+     */
+    public void loadExponentGraph( )
+    {
+        generateExponentEdges( EXPONENT_LIMIT, new EdgeSink( )
+        {
+            public void edge( String source, String dest, double cost )
+              { addEdge( source, dest, cost ); }
+        } );
+    }
+
+    /**
+     * Write the exponent graph to a file, one
+     *    source destination cost
+     * line per edge, in the format readGraphFile accepts.
      */
     public void generateFileForGraph( String inp) {
     	String outputFileName = inp;
@@ -421,79 +5067,14 @@ public class Graph
     	
    	    try {
          FileWriter fout = new FileWriter( outputFileName );
-         graphFileExponent = new PrintWriter( fout );
-         
-       	 String line = "";
-       	 int i = 0, LIMIT = 1000;
-       	 double cost = 0;
-		
-       	 
-       	 
-         while(i <= LIMIT-1) {
-            /* TODO: write data about vertices (exponents) and 
-             * edges when an edge connects an exponent to the 
-             * next greater exponent. You may use the 'line' 
-             * variable for storing the data.    	 
-             */
-        	 
-        	 cost = i;
-        	 line = i + " " + ( i + 1 ) + " " + cost;
-             StringTokenizer st = new StringTokenizer( line );
-             
-             try {
-               if( st.countTokens( ) != 3 ) {
-                System.err.println( "Skipping ill-formatted line " + line );
-                continue;
-               }
-               String source  = st.nextToken( );
-               String dest    = st.nextToken( );
-               cost   = Double.parseDouble( st.nextToken( ) );
-
-               graphFileExponent.println( source + " " + dest + " " + cost );
-               
-             /* TODO: write data about vertices (exponents) and 
-              * edges when an edge connects an exponent to its 
-              * doubled value. You may use 'line' variable for 
-              * storing the data. 	 
-              */
-               
-               if(i == 0 || i == 1) 
-               {
-            	   i++;
-            	   continue; 
-               }
-               
-             
-               if(( 2 * i ) <= LIMIT == false)
-               {
-            	   i++;
-            	   continue; 
-               }
-               
-               
-               cost = i * (1 + (Math.log(i) / Math.log(2))); //credit : Professor Shervin
-               
-               line = i + " " + (i + i) + " " + cost;
-               
-               st = new StringTokenizer( line );
-               
-               if( st.countTokens( ) != 3 ) {
-                   System.err.println( "Skipping ill-formatted line " + line );
-                   continue;
-               }
-               source  = st.nextToken( );
-               dest    = st.nextToken( );
-               cost    = Double.parseDouble( st.nextToken( ) );                 
-
-               graphFileExponent.println( source + " " + dest + " " + cost );               
-               
-             } catch( NumberFormatException e ) {
-            	 System.err.println( "Skipping ill-formatted line " + line );            	 
-             }
-             
-             i++;
-             
-         }        
+         graphFileExponent = new PrintWriter( new BufferedWriter( fout ) );
+         final PrintWriter out = graphFileExponent;
+
+         generateExponentEdges( EXPONENT_LIMIT, new EdgeSink( )
+         {
+             public void edge( String source, String dest, double cost )
+               { out.println( source + " " + dest + " " + cost ); }
+         } );
    	    } catch( IOException e ) {
    	    	System.err.println( e );   	    	
    	    } finally {
@@ -502,26 +5083,18 @@ public class Graph
    	    	}
    	    }
     }
+
     /**
-     * A main routine that:
-     * 1. Reads a file containing edges (supplied as a command-line parameter);
-     * 2. Forms the graph;
-     * 3. Repeatedly prompts for two vertices and
-     *    runs the shortest path algorithm.
+     * Read a file containing edges and insert them into the graph.
      * The data file is a sequence of lines of the format
      *    source destination cost
      */
-    public static void main( String [ ] args )
+    public void readGraphFile( String fileName )
     {
-        Graph g = new Graph( );
-        /* TODO: call the generateFileForGraph method here. 
-         */
-        g.generateFileForGraph(args[0]);
-        
         Scanner graphFile = null;
         try
         {
-            FileReader fin = new FileReader( args[0] );
+            FileReader fin = new FileReader( fileName );
             graphFile = new Scanner( fin );
 
             // Read the edges and insert
@@ -541,7 +5114,7 @@ public class Graph
                     String source  = st.nextToken( );
                     String dest    = st.nextToken( );
                     double cost    = Double.parseDouble( st.nextToken( ) );
-                    g.addEdge( source, dest, cost );
+                    addEdge( source, dest, cost );
                 }
                 catch( NumberFormatException e )
                   { System.err.println( "Skipping ill-formatted line " + line ); }
@@ -553,8 +5126,95 @@ public class Graph
         	if(graphFile != null)
         		graphFile.close();
         }
+    }
+
+    /**
+     * A main routine that:
+     * 1. Builds the exponent graph in memory;
+     * 2. Optionally writes it to the graph file named by the first of
+     *    two command-line parameters;
+     * 3. Runs the shortest path algorithm from vertex 0 and prints the
+     *    paths to the file named by the last parameter.
+     * Usage: java Graph [graphFile] outputFile
+     */
+    public static void main( String [ ] args )
+    {
+        if( args.length < 1 || args[ 0 ].equals( "-serve" ) && args.length < 2 )
+        {
+            System.err.println( "Usage: java Graph [graphFile] outputFile" );
+            System.err.println( "       java Graph -serve port|host:port|socketPath|unix:path [graphFile]" );
+            System.err.println( "       java Graph -benchnegative [graphFile]" );
+            System.err.println( "       java Graph -benchorder [graphFile]" );
+            return;
+        }
+
+        if( args[ 0 ].equals( "-benchnegative" ) )
+        {
+            final Graph bench = new Graph( );
+            if( args.length > 1 )
+                bench.readGraphFile( args[ 1 ] );
+            else
+                generateNegativeEdges( 200000, 1000000, 1, new EdgeSink( )
+                {
+                    public void edge( String source, String dest, double cost )
+                      { bench.addEdge( source, dest, cost ); }
+                } );
+            benchmarkNegative( bench, "0", 5, System.out );
+            return;
+        }
+        if( args[ 0 ].equals( "-benchorder" ) )
+        {
+            final Graph bench = new Graph( );
+            if( args.length > 1 )
+                bench.readGraphFile( args[ 1 ] );
+            else
+                generateGridEdges( 700, 1, new EdgeSink( )
+                {
+                    public void edge( String source, String dest, double cost )
+                      { bench.addEdge( source, dest, cost ); }
+                } );
+            List<String> sources = new ArrayList<String>( );
+            Random r = new Random( 1 );
+            for( int i = 0; i < 8; i++ )
+                sources.add( bench.vertices.get( r.nextInt( bench.vertices.size( ) ) ).name );
+            benchmarkOrder( bench, sources, 3, System.out );
+            return;
+        }
+
+        Graph g = new Graph( EXPONENT_LIMIT + 1, 2 );
+
+        if( args[ 0 ].equals( "-serve" ) )
+        {
+            SocketAddress address;
+            try
+              { address = GraphServer.parseAddress( args[ 1 ] ); }
+            catch( IllegalArgumentException e )
+            {
+                System.err.println( "Usage: java Graph -serve port|host:port|socketPath|unix:path [graphFile]" );
+                System.err.println( e.getMessage( ) );
+                return;
+            }
+
+            if( args.length > 2 )
+                g.readGraphFile( args[ 2 ] );
+            else
+                g.loadExponentGraph( );
+            try( GraphServer server = new GraphServer( g, address ) )
+            {
+                System.out.println( "Serving " + g.vertexMap.size( ) + " vertices on "
+                                    + server.address( ) );
+                server.serve( );
+            }
+            catch( IOException e )
+              { System.err.println( e ); }
+            return;
+        }
+
+        g.loadExponentGraph( );
+        if( args.length > 1 )
+            g.generateFileForGraph( args[0] );
 
-         System.out.println( "File read..." );
+         System.out.println( "Graph built..." );
          System.out.println( g.vertexMap.size( ) + " vertices" );
          
          /* TODO: declare a file for printing the shortest 
@@ -570,7 +5230,7 @@ public class Graph
          FileWriter shortest = null;
          try
          {
-        	 shortest = new FileWriter( args[1] );
+        	 shortest = new FileWriter( args[args.length - 1] );
              graphoutput = new PrintWriter( shortest );
              
              // Scanner in = new Scanner( System.in );